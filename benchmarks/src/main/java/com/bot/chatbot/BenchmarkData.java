@@ -0,0 +1,41 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общие данные замеров: записанный ответ API курсов и прогретый кэш на его основе
+ */
+final class BenchmarkData {
+    static final String RATES_JSON = readResource("/exchange_rates_usd.json"); // Ответ API (база USD)
+
+    private BenchmarkData() {
+    }
+
+    // Кэш курсов, который читает снимок с диска и не ходит в сеть во время замера
+    static CurrencyRateCache warmRateCache() throws IOException {
+        Path snapshot = Files.createTempFile("bench_rates", ".json");
+        snapshot.toFile().deleteOnExit();
+        Files.writeString(snapshot, System.currentTimeMillis() + "\n" + RATES_JSON);
+        CurrencyRateCache cache = new CurrencyRateCache("http://localhost:9/unused",
+                TimeUnit.DAYS.toMillis(1), 1000, snapshot);
+        cache.get(); // Загружаем снимок заранее
+        return cache;
+    }
+
+    private static String readResource(String name) {
+        try (InputStream in = BenchmarkData.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Нет ресурса " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Разбор ответа API курсов и форматирование сообщения с курсами
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurrencyBenchmark {
+    private ChatBotLogic bot;
+    private RateTable rates; // Заранее разобранный ответ
+    private long fetchedAt;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bot = new ChatBotLogic("bench_currency", BenchmarkData.warmRateCache());
+        rates = RateTable.parse(BenchmarkData.RATES_JSON);
+        fetchedAt = System.currentTimeMillis();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bot.close();
+    }
+
+    @Benchmark
+    public double parseCurrencyRate() {
+        return bot.parseCurrencyRate(BenchmarkData.RATES_JSON, "RUB");
+    }
+
+    @Benchmark
+    public RateTable parseRateTable() throws IOException {
+        return RateTable.parse(BenchmarkData.RATES_JSON);
+    }
+
+    @Benchmark
+    public String buildCurrencyRatesMessage() {
+        return bot.buildCurrencyRatesMessage(rates, fetchedAt);
+    }
+}
@@ -0,0 +1,82 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Сохранение и загрузка истории разного размера.
+ * Файлы пишутся в user_histories/ рабочего каталога (пользователь bench_history_N).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int messages;
+
+    private ChatBotLogic bot;
+    private HistoryStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String user = "bench_history_" + messages;
+        Path directory = Paths.get("user_histories");
+        Files.createDirectories(directory);
+        store = new HistoryStore(directory, user);
+        store.clear(); // Начинаем с пустой истории (вместе с архивами прошлых запусков)
+        List<Message> history = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            boolean isUser = i % 2 == 0;
+            history.add(new Message(isUser ? user : "Бот",
+                    isUser ? "12 * " + i : "12 * " + (i - 1) + " = " + 12 * (i - 1),
+                    String.format("%02d:%02d", (i / 60) % 24, i % 60), isUser));
+        }
+        store.appendAll(history);
+        store.checkpoint();
+        bot = new ChatBotLogic(user);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bot.close();
+    }
+
+    // Контрольная точка: журнал сворачивается в снимок всей истории
+    @Benchmark
+    public void saveHistoryToFile() {
+        bot.saveHistoryToFile();
+    }
+
+    // Загрузка для окна чата - последняя страница
+    @Benchmark
+    public long loadHistory() {
+        return bot.loadHistory().count();
+    }
+
+    // Чтение всей истории (архивы + снимок + журнал)
+    @Benchmark
+    public int loadFullHistory() throws IOException {
+        return store.load().size();
+    }
+}
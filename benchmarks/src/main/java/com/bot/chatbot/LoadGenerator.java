@@ -0,0 +1,76 @@
+package com.bot.chatbot;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Генератор нагрузки для {@link BotServer}.
+ * Каждый виртуальный пользователь последовательно отправляет свои сообщения,
+ * в конце печатаются пропускная способность и задержки (p50/p99/максимум).
+ * Запуск: java ... com.bot.chatbot.LoadGenerator [адрес] [пользователей] [сообщений на пользователя]
+ */
+public class LoadGenerator {
+    private static final String[] MESSAGES = {"привет", "12 * 34", "Который час?", "/help"}; // Быстрые команды
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int messagesPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        long[] latencies = new long[users * messagesPerUser]; // Каждый пользователь пишет в свой отрезок
+        AtomicInteger errors = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int u = 0; u < users; u++) {
+                int user = u;
+                executor.submit(() -> {
+                    URI uri = URI.create(baseUrl + "/chat?user="
+                            + URLEncoder.encode("load_" + user, StandardCharsets.UTF_8));
+                    for (int i = 0; i < messagesPerUser; i++) {
+                        HttpRequest request = HttpRequest.newBuilder(uri)
+                                .POST(HttpRequest.BodyPublishers.ofString(MESSAGES[i % MESSAGES.length]))
+                                .build();
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[user * messagesPerUser + i] = System.nanoTime() - sent;
+                    }
+                    return null;
+                });
+            }
+        } // close() дожидается всех пользователей
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        double seconds = elapsed / 1e9;
+        System.out.printf("Пользователей: %d, запросов: %d, ошибок: %d, время: %.1f с%n",
+                users, latencies.length, errors.get(), seconds);
+        System.out.printf("Пропускная способность: %.0f запросов/с%n", latencies.length / seconds);
+        System.out.printf("Задержка: p50 %.2f мс, p99 %.2f мс, максимум %.2f мс%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+}
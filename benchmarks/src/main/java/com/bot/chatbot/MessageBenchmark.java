@@ -0,0 +1,73 @@
+package com.bot.chatbot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Создание сообщения и его сериализация: двоичный формат журнала и стандартная сериализация Java
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private Message message;
+    private MessageCodec.AuthorTable authors;
+    private byte[] serialized; // Сообщение через ObjectOutputStream
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        message = new Message("Бот", "Не понимаю. Напишите /help для списка команд.", System.currentTimeMillis(), false);
+        authors = new MessageCodec.AuthorTable();
+        MessageCodec.encodeJournalRecord(message, authors); // Автор уже объявлен, как в живом журнале
+        serialized = javaSerialize();
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return new Message("Бот", "Не понимаю.", System.currentTimeMillis(), false); // Как при ответе бота
+    }
+
+    @Benchmark
+    public String formatTime() {
+        return message.getTime();
+    }
+
+    @Benchmark
+    public byte[] encodeJournalRecord() throws IOException {
+        return MessageCodec.encodeJournalRecord(message, authors);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+}
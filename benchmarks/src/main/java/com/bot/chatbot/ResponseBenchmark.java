@@ -0,0 +1,49 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ответы бота на все виды команд и на непонятное сообщение (курсы - из прогретого кэша)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({"/help", "Который час?", "привет", "ЗДРАВСТВУЙТЕ", "курс валют", "exchange rates",
+            "12 * 34", "(12 + 4) * 3 ^ 2 / 7", "100 EUR в JPY", "convert 250.5 GBP to CNY", "что-то непонятное"})
+    public String message;
+
+    private ChatBotLogic bot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bot = new ChatBotLogic("bench_response", BenchmarkData.warmRateCache());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bot.close();
+    }
+
+    @Benchmark
+    public String getResponse() {
+        return bot.getResponse(message);
+    }
+}
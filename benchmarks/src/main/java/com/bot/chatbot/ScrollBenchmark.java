@@ -0,0 +1,99 @@
+package com.bot.chatbot;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.Scene;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Сцена для замера прокрутки длинного чата.
+ * Прокручивает список из N сообщений по кадрам и выводит времена кадров
+ * и скорость выделения памяти в потоке JavaFX.
+ * Запуск: java ... com.bot.chatbot.ScrollBenchmark [сообщений] [кадров]
+ */
+public class ScrollBenchmark extends Application {
+    private static final int ROWS_PER_FRAME = 7; // Прокрутка за кадр (больше одной страницы за секунду)
+
+    @Override
+    public void start(Stage stage) {
+        List<String> args = getParameters().getUnnamed();
+        int messages = args.size() > 0 ? Integer.parseInt(args.get(0)) : 100_000;
+        int frames = args.size() > 1 ? Integer.parseInt(args.get(1)) : 1_200;
+
+        ObservableList<Message> items = FXCollections.observableArrayList();
+        for (int i = 0; i < messages; i++) {
+            boolean user = i % 2 == 0;
+            items.add(new Message(user ? "Пользователь" : "Бот",
+                    user ? "Сообщение номер " + i : "Ответ бота на сообщение " + (i - 1),
+                    String.format("%02d:%02d", (i / 60) % 24, i % 60), user));
+        }
+
+        ListView<Message> listView = new ListView<>(items);
+        listView.setCellFactory(param -> new MessageCell());
+        Scene scene = new Scene(new StackPane(listView), 432, 527);
+        scene.getStylesheets().add(getClass().getResource("/com/bot/chatbot/chat.css").toExternalForm());
+        stage.setTitle("Прокрутка: " + messages + " сообщений");
+        stage.setScene(scene);
+        stage.show();
+
+        long fxThread = Thread.currentThread().threadId();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] frameNanos = new long[frames];
+
+        new AnimationTimer() {
+            private static final int WARMUP = 120; // Кадры до начала замера
+            private int frame = -WARMUP;
+            private int row;
+            private long last;
+            private long startBytes;
+            private long startNanos;
+
+            @Override
+            public void handle(long now) {
+                if (frame == 0) {
+                    startBytes = threads.getThreadAllocatedBytes(fxThread);
+                    startNanos = now;
+                } else if (frame > 0) {
+                    frameNanos[frame - 1] = now - last;
+                }
+                last = now;
+                if (frame == frames) {
+                    stop();
+                    report(frameNanos, threads.getThreadAllocatedBytes(fxThread) - startBytes, now - startNanos);
+                    Platform.exit();
+                    return;
+                }
+                row = (row + ROWS_PER_FRAME) % messages;
+                listView.scrollTo(row);
+                frame++;
+            }
+        }.start();
+    }
+
+    // Печатает итоги замера
+    private static void report(long[] frameNanos, long allocatedBytes, long elapsedNanos) {
+        long[] sorted = frameNanos.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Кадров: %d, p50 %.2f мс, p99 %.2f мс, максимум %.2f мс%n", sorted.length,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+        System.out.printf("Выделено в потоке FX: %.1f МБ (%.1f МБ/с, %.1f КБ/кадр)%n",
+                allocatedBytes / 1e6, allocatedBytes / 1e6 / seconds, allocatedBytes / 1e3 / sorted.length);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+}
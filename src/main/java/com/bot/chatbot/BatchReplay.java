@@ -0,0 +1,423 @@
+package com.bot.chatbot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Пакетный прогон журнала сообщений через бота (для регрессии и замеров без окна чата).
+ * Вход - по сообщению в строке: простой текст (от пользователя по умолчанию) или JSONL
+ * вида {"user": "alice", "text": "12 * 34"}. Выход - JSONL с ответами в порядке входа:
+ * {"line": 1, "user": "alice", "response": "..."}; ошибки - {"line": 2, "error": "..."}.
+ *
+ * Сообщения разных пользователей обрабатываются параллельно на всех ядрах, одного пользователя -
+ * по порядку одним потоком. Читатель не опережает запись больше чем на окно строк,
+ * поэтому память не зависит от размера входа. Боты открываются только для чтения ({@link ChatBotLogic#readOnly}):
+ * история не пишется, файлы плоского вида не переносятся, индекс поиска не сохраняется.
+ * В конце в stderr печатаются пропускная способность и перцентили задержки ответа.
+ *
+ * Запуск: java ... com.bot.chatbot.BatchReplay [вход|-] [выход|-]
+ * Настройки: chatbot.batch.threads (по умолчанию - число ядер), chatbot.batch.user (по умолчанию batch),
+ * chatbot.batch.window (строк в работе, по умолчанию 4096), chatbot.batch.bots (открытых ботов
+ * пользователей, по умолчанию 10 000; давно не писавшие закрываются).
+ */
+public class BatchReplay {
+    /**
+     * Итог прогона
+     * @param messages сообщений, на которые получен ответ
+     * @param errors строк с ошибками (некорректный JSON, исключение в боте)
+     * @param elapsedNanos время прогона
+     * @param latency задержки ответов, нс
+     */
+    public record Summary(long messages, long errors, long elapsedNanos, Histogram latency) {
+        // Сообщений в секунду
+        public double throughput() {
+            return elapsedNanos == 0 ? 0 : messages * 1e9 / elapsedNanos;
+        }
+    }
+
+    private static final int LANE_QUEUE = 256; // Сообщений в очереди одного потока
+    private static final Task STOP = new Task(-1, null, null); // Сигнал завершения потока
+
+    private record Task(long line, String user, String text) {
+    }
+
+    private final int threads; // Потоков обработки
+    private final int window; // Строк, прочитанных, но еще не записанных
+    private final int botsPerLane; // Открытых ботов на поток
+    private final String defaultUser; // Пользователь строк простого текста
+    private final Function<String, IBot> botFactory; // Создает бота для пользователя
+
+    public BatchReplay(int threads, int window, int maxBots, String defaultUser, Function<String, IBot> botFactory) {
+        this.threads = Math.max(1, threads);
+        this.window = Math.max(1, window);
+        this.botsPerLane = Math.max(1, maxBots / this.threads);
+        this.defaultUser = defaultUser;
+        this.botFactory = botFactory;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String input = args.length > 0 ? args[0] : "-";
+        String output = args.length > 1 ? args[1] : "-";
+        BatchReplay replay = new BatchReplay(
+                (int) BotConfig.getLong("batch.threads", Runtime.getRuntime().availableProcessors()),
+                (int) BotConfig.getLong("batch.window", 4096),
+                (int) BotConfig.getLong("batch.bots", 10_000),
+                BotConfig.getString("batch.user", "batch"),
+                ChatBotLogic::readOnly);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                input.equals("-") ? System.in : Files.newInputStream(Paths.get(input)), StandardCharsets.UTF_8), 1 << 16);
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     output.equals("-") ? System.out : Files.newOutputStream(Paths.get(output)), StandardCharsets.UTF_8), 1 << 16)) {
+            Summary summary = replay.run(in, out);
+            Histogram latency = summary.latency();
+            System.err.printf("Сообщений: %d, ошибок: %d, время: %.1f с, %.0f сообщений/с%n",
+                    summary.messages(), summary.errors(), summary.elapsedNanos() / 1e9, summary.throughput());
+            System.err.printf("Задержка ответа: p50 %.3f мс, p90 %.3f мс, p99 %.3f мс, p99.9 %.3f мс, максимум %.3f мс%n",
+                    latency.percentile(0.50) / 1e6, latency.percentile(0.90) / 1e6, latency.percentile(0.99) / 1e6,
+                    latency.percentile(0.999) / 1e6, latency.max() / 1e6);
+        }
+    }
+
+    /**
+     * Прогоняет все строки входа через ботов и пишет ответы в порядке входа
+     * @throws IOException ошибка чтения или записи (ошибки отдельных строк попадают в выход)
+     */
+    public Summary run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        Histogram latency = new Histogram("batch.response");
+        AtomicLong errors = new AtomicLong();
+        AtomicReferenceArray<String> results = new AtomicReferenceArray<>(window); // Строка n - в ячейке n % window
+        Semaphore inFlight = new Semaphore(window); // Читатель ждет, пока освободится окно
+        OrderedWriter writer = new OrderedWriter(out, results, inFlight);
+
+        Lane[] lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            lanes[i] = new Lane(i, writer, latency, errors);
+            lanes[i].start();
+        }
+        writer.start();
+
+        long start = System.nanoTime();
+        long lines = 0;
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                inFlight.acquire();
+                writer.checkFailure();
+                long number = lines++;
+                String[] parsed = parseLine(line, defaultUser);
+                if (parsed == null) {
+                    errors.incrementAndGet();
+                    writer.complete(number, error(number, "некорректная строка JSON"));
+                    continue;
+                }
+                // Один пользователь - всегда один поток: его сообщения обрабатываются по порядку
+                lanes[Math.floorMod(parsed[0].hashCode(), threads)].queue.put(new Task(number, parsed[0], parsed[1]));
+            }
+        } finally {
+            for (Lane lane : lanes) {
+                lane.queue.put(STOP);
+            }
+            for (Lane lane : lanes) {
+                lane.join();
+            }
+            writer.finish(lines);
+            writer.join();
+        }
+        writer.checkFailure();
+        out.flush();
+        return new Summary(lines - errors.get(), errors.get(), System.nanoTime() - start, latency);
+    }
+
+    /**
+     * Разбирает строку входа
+     * @return {пользователь, текст} или null, если строка похожа на JSON, но некорректна
+     */
+    static String[] parseLine(String line, String defaultUser) {
+        String trimmed = line.strip();
+        if (!trimmed.startsWith("{")) {
+            return new String[]{defaultUser, line};
+        }
+        Map<String, String> fields = JsonLine.parse(trimmed);
+        if (fields == null || fields.get("text") == null) {
+            return null;
+        }
+        String user = fields.get("user");
+        return new String[]{user == null || user.isEmpty() ? defaultUser : user, fields.get("text")};
+    }
+
+    private static String error(long line, String message) {
+        return "{\"line\":" + (line + 1) + ",\"error\":" + JsonLine.quote(message) + "}";
+    }
+
+    /**
+     * Поток обработки: свои пользователи, свои боты
+     */
+    private final class Lane extends Thread {
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(LANE_QUEUE);
+        private final OrderedWriter writer;
+        private final Histogram latency;
+        private final AtomicLong errors;
+        // Недавние боты пользователей; самый давний закрывается при переполнении
+        private final LinkedHashMap<String, IBot> bots = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IBot> eldest) {
+                if (size() > botsPerLane) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Lane(int index, OrderedWriter writer, Histogram latency, AtomicLong errors) {
+            super("batch-replay-" + index);
+            this.writer = writer;
+            this.latency = latency;
+            this.errors = errors;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Task task = queue.take(); task != STOP; task = queue.take()) {
+                    writer.complete(task.line(), respond(task));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                bots.values().forEach(IBot::close);
+            }
+        }
+
+        private String respond(Task task) {
+            try {
+                IBot bot = bots.computeIfAbsent(task.user(), botFactory);
+                long start = System.nanoTime();
+                String response = bot.getResponse(task.text());
+                latency.recordSince(start);
+                return "{\"line\":" + (task.line() + 1) + ",\"user\":" + JsonLine.quote(task.user())
+                        + ",\"response\":" + JsonLine.quote(response) + "}";
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                return error(task.line(), String.valueOf(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Запись результатов строго по порядку строк; результаты, пришедшие раньше, ждут в окне
+     */
+    private static final class OrderedWriter extends Thread {
+        private final Writer out;
+        private final AtomicReferenceArray<String> results;
+        private final Semaphore inFlight;
+        private volatile long total = -1; // Всего строк (известно после конца входа)
+        private volatile IOException failure; // Ошибка записи
+
+        OrderedWriter(Writer out, AtomicReferenceArray<String> results, Semaphore inFlight) {
+            super("batch-replay-writer");
+            this.out = out;
+            this.results = results;
+            this.inFlight = inFlight;
+        }
+
+        // Результат строки готов
+        void complete(long line, String result) {
+            results.set((int) (line % results.length()), result);
+            LockSupport.unpark(this);
+        }
+
+        // Вход закончился на строке total
+        void finish(long total) {
+            this.total = total;
+            LockSupport.unpark(this);
+        }
+
+        void checkFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void run() {
+            for (long next = 0; next != total; ) {
+                int slot = (int) (next % results.length());
+                String result = results.get(slot);
+                if (result == null) {
+                    LockSupport.park(this); // Разбудит complete или finish
+                    continue;
+                }
+                results.set(slot, null);
+                next++;
+                try {
+                    if (failure == null) {
+                        out.write(result);
+                        out.write('\n');
+                    }
+                } catch (IOException e) {
+                    failure = e; // Дальше только освобождаем окно, чтобы читатель не завис
+                }
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Разбор и запись плоских JSON-объектов со строковыми полями (вложенные значения пропускаются)
+     */
+    static final class JsonLine {
+        private final String s;
+        private int pos;
+
+        private JsonLine(String s) {
+            this.s = s;
+        }
+
+        // Поля объекта; нестроковые значения - как текст; null, если JSON некорректен
+        static Map<String, String> parse(String json) {
+            try {
+                JsonLine parser = new JsonLine(json);
+                Map<String, String> fields = parser.object();
+                parser.skipSpaces();
+                return parser.pos == json.length() ? fields : null;
+            } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+
+        // Строка в кавычках с экранированием
+        static String quote(String value) {
+            StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                }
+            }
+            return sb.append('"').toString();
+        }
+
+        private Map<String, String> object() {
+            Map<String, String> fields = new LinkedHashMap<>();
+            expect('{');
+            skipSpaces();
+            if (peek() == '}') {
+                pos++;
+                return fields;
+            }
+            while (true) {
+                skipSpaces();
+                String name = string();
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                fields.put(name, peek() == '"' ? string() : value());
+                skipSpaces();
+                if (peek() == ',') {
+                    pos++;
+                    continue;
+                }
+                expect('}');
+                return fields;
+            }
+        }
+
+        // Нестроковое значение: число, true/false/null, вложенный объект или массив (как есть)
+        private String value() {
+            int start = pos;
+            int depth = 0;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '"') {
+                    string();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0) {
+                        break;
+                    }
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    break;
+                }
+                pos++;
+            }
+            if (depth != 0 || pos == start) {
+                throw new IllegalArgumentException("Некорректное значение");
+            }
+            return s.substring(start, pos).strip();
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = s.charAt(pos++);
+                switch (escaped) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        pos += 4;
+                    }
+                    default -> sb.append(escaped); // \" \\ \/
+                }
+            }
+        }
+
+        private char peek() {
+            return s.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (s.charAt(pos) != c) {
+                throw new IllegalArgumentException("Ожидался символ " + c);
+            }
+            pos++;
+        }
+
+        private void skipSpaces() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
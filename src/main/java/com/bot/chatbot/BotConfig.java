@@ -0,0 +1,37 @@
+package com.bot.chatbot;
+
+/**
+ * Настройки бота, задаются системными свойствами (-Dchatbot.<имя>=значение)
+ */
+public final class BotConfig {
+    private static final String PREFIX = "chatbot.";
+
+    private BotConfig() {
+    }
+
+    // Строковое свойство
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    // Числовое свойство; некорректное значение заменяется значением по умолчанию
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Некорректное значение " + PREFIX + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // Логическое свойство
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,195 @@
+package com.bot.chatbot;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Метрики бота: гистограммы задержек по командам, обращений к API курсов и ввода-вывода истории,
+ * счетчики кэша курсов, кэша ответов и записанных байт.
+ * Включаются свойством chatbot.metrics.enabled=true; тогда они публикуются в JMX
+ * (com.bot.chatbot:type=BotMetrics) и, если задано chatbot.metrics.dumpIntervalMs,
+ * периодически печатаются в консоль.
+ * Выключенные метрики ничего не стоят: проверка ENABLED - константа, и JIT убирает замеры целиком.
+ */
+public final class BotMetrics implements BotMetricsMXBean {
+    public static final boolean ENABLED = BotConfig.getBoolean("metrics.enabled", false); // Метрики включены
+
+    private static final BotMetrics INSTANCE = new BotMetrics();
+
+    // Гистограммы вне команд (задержки в нс, размеры в байтах)
+    public static final Histogram CURRENCY_FETCH = histogram("currency.fetch"); // Запрос к API курсов
+    public static final Histogram HISTORY_SAVE = histogram("history.save"); // Сохранение истории
+    public static final Histogram HISTORY_LOAD = histogram("history.load"); // Загрузка истории
+    public static final Histogram HISTORY_SAVE_BYTES = histogram("history.save.bytes"); // Байт на сохранение
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>(); // По имени, для отчета
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder apiFailures = new LongAdder();
+    private final LongAdder historySaves = new LongAdder();
+    private final LongAdder historyBytes = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            register();
+        }
+    }
+
+    private BotMetrics() {
+    }
+
+    // Гистограмма с заданным именем (одна на имя)
+    public static Histogram histogram(String name) {
+        return INSTANCE.histograms.computeIfAbsent(name, Histogram::new);
+    }
+
+    // Время начала замера (0, если метрики выключены)
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void cacheHit() {
+        if (ENABLED) {
+            INSTANCE.cacheHits.increment();
+        }
+    }
+
+    public static void cacheMiss() {
+        if (ENABLED) {
+            INSTANCE.cacheMisses.increment();
+        }
+    }
+
+    public static void apiFailure() {
+        if (ENABLED) {
+            INSTANCE.apiFailures.increment();
+        }
+    }
+
+    // Запись в файлы истории (журнал или снимок)
+    public static void historyWritten(long bytes) {
+        if (ENABLED) {
+            INSTANCE.historyBytes.add(bytes);
+        }
+    }
+
+    // Сохранение истории заданного размера (сами байты учитывает historyWritten)
+    public static void historySaved(long bytes) {
+        if (ENABLED) {
+            INSTANCE.historySaves.increment();
+            HISTORY_SAVE_BYTES.record(bytes);
+        }
+    }
+
+    // Метрики процесса (для отчета и тестов)
+    public static BotMetrics get() {
+        return INSTANCE;
+    }
+
+    // Публикует метрики в JMX и запускает периодический отчет
+    private static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName("com.bot.chatbot:type=BotMetrics"));
+        } catch (JMException e) {
+            System.err.println("Не удалось зарегистрировать метрики в JMX: " + e.getMessage());
+        }
+        long interval = BotConfig.getLong("metrics.dumpIntervalMs", 0);
+        if (interval > 0) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> System.out.print(INSTANCE.dump()),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public long getCurrencyCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCurrencyCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getCurrencyApiFailures() {
+        return apiFailures.sum();
+    }
+
+    @Override
+    public long getResponseCacheHits() {
+        ResponseCache cache = ResponseCache.shared();
+        return cache == null ? 0 : cache.hits();
+    }
+
+    @Override
+    public long getResponseCacheMisses() {
+        ResponseCache cache = ResponseCache.shared();
+        return cache == null ? 0 : cache.misses();
+    }
+
+    @Override
+    public long getHistorySaves() {
+        return historySaves.sum();
+    }
+
+    @Override
+    public long getHistoryBytesWritten() {
+        return historyBytes.sum();
+    }
+
+    @Override
+    public String[] getHistograms() {
+        return histograms.values().stream()
+                .filter(histogram -> histogram.count() > 0)
+                .map(BotMetrics::describe)
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder("=== Метрики бота ===\n");
+        for (String line : getHistograms()) {
+            sb.append(line).append('\n');
+        }
+        sb.append(String.format("курсы: из кэша %d, ожидание API %d, ошибок API %d%n",
+                getCurrencyCacheHits(), getCurrencyCacheMisses(), getCurrencyApiFailures()));
+        sb.append(String.format("ответы: из кэша %d, построено заново %d%n",
+                getResponseCacheHits(), getResponseCacheMisses()));
+        sb.append(String.format("история: сохранений %d, записано %d байт%n",
+                getHistorySaves(), getHistoryBytesWritten()));
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+        cacheHits.reset();
+        cacheMisses.reset();
+        apiFailures.reset();
+        historySaves.reset();
+        historyBytes.reset();
+    }
+
+    // Строка отчета по гистограмме: задержки в мс, размеры в байтах
+    private static String describe(Histogram histogram) {
+        if (histogram.getName().endsWith(".bytes")) {
+            return String.format("%-24s n=%d p50=%d p99=%d max=%d байт", histogram.getName(), histogram.count(),
+                    histogram.percentile(0.50), histogram.percentile(0.99), histogram.max());
+        }
+        return String.format("%-24s n=%d p50=%.3f p99=%.3f max=%.3f мс", histogram.getName(), histogram.count(),
+                histogram.percentile(0.50) / 1e6, histogram.percentile(0.99) / 1e6, histogram.max() / 1e6);
+    }
+}
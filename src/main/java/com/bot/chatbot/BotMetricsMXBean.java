@@ -0,0 +1,56 @@
+package com.bot.chatbot;
+
+/**
+ * Метрики бота в JMX (com.bot.chatbot:type=BotMetrics)
+ */
+public interface BotMetricsMXBean {
+    /**
+     * Ответы по курсам из кэша (без ожидания сети)
+     */
+    long getCurrencyCacheHits();
+
+    /**
+     * Ответы по курсам, которым пришлось ждать запрос к API
+     */
+    long getCurrencyCacheMisses();
+
+    /**
+     * Неудачные запросы к API курсов
+     */
+    long getCurrencyApiFailures();
+
+    /**
+     * Ответы из кэша ответов (команды с однозначным ответом)
+     */
+    long getResponseCacheHits();
+
+    /**
+     * Кэшируемые ответы, построенные заново (нет в кэше или сменился снимок курсов)
+     */
+    long getResponseCacheMisses();
+
+    /**
+     * Сохранений истории (контрольных точек)
+     */
+    long getHistorySaves();
+
+    /**
+     * Байт записано в файлы истории (журнал и снимки)
+     */
+    long getHistoryBytesWritten();
+
+    /**
+     * Сводка по каждой гистограмме: количество, p50, p99, максимум
+     */
+    String[] getHistograms();
+
+    /**
+     * Все метрики одним текстом
+     */
+    String dump();
+
+    /**
+     * Обнуляет все метрики
+     */
+    void reset();
+}
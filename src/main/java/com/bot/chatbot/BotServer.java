@@ -0,0 +1,159 @@
+package com.bot.chatbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP-сервер чат-бота для многих пользователей в одном процессе.
+ * Каждый запрос выполняется в своем виртуальном потоке, сессии хранятся в {@link SessionRegistry}.
+ * <pre>
+ * POST /chat?user=имя     тело - текст сообщения, ответ - текст ответа бота
+ * GET  /history?user=имя  последняя страница истории, по сообщению на строку
+ * </pre>
+ * Настройки: chatbot.server.port, chatbot.server.idleMs, chatbot.server.evictIntervalMs
+ */
+public class BotServer implements AutoCloseable {
+    private static final Pattern USER_NAME = Pattern.compile("[\\p{L}\\p{N}_-][\\p{L}\\p{N}_.-]{0,63}"); // Имя годится для имени файла
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024; // Ограничение размера сообщения
+
+    private final HttpServer server; // HTTP-сервер JDK
+    private final ExecutorService executor; // Виртуальный поток на запрос
+    private final SessionRegistry sessions; // Сессии пользователей
+
+    public BotServer(int port, SessionRegistry sessions) throws IOException {
+        this.sessions = sessions;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/chat", this::handleChat);
+        server.createContext("/history", this::handleHistory);
+    }
+
+    // Запускает прием запросов
+    public void start() {
+        server.start();
+    }
+
+    // Порт, на котором слушает сервер (полезно при port = 0)
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Обрабатывает сообщение пользователя
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "Используйте POST");
+                return;
+            }
+            String user = userName(exchange);
+            if (user == null) {
+                send(exchange, 400, "Некорректное имя пользователя");
+                return;
+            }
+            String text = readBody(exchange);
+            if (text == null) {
+                send(exchange, 413, "Сообщение слишком длинное");
+                return;
+            }
+            if (text.isBlank()) {
+                send(exchange, 400, "Пустое сообщение");
+                return;
+            }
+            SessionRegistry.Session session = sessions.acquire(user);
+            try {
+                send(exchange, 200, session.chat(text.trim()));
+            } catch (CompletionException e) {
+                boolean timeout = e.getCause() instanceof TimeoutException;
+                send(exchange, timeout ? 504 : 500, timeout
+                        ? "Бот не успел ответить. Попробуйте позже."
+                        : "Не удалось получить ответ. Попробуйте позже.");
+            } finally {
+                sessions.release(session);
+            }
+        }
+    }
+
+    // Возвращает последнюю страницу истории пользователя
+    private void handleHistory(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String user = userName(exchange);
+            if (user == null) {
+                send(exchange, 400, "Некорректное имя пользователя");
+                return;
+            }
+            SessionRegistry.Session session = sessions.acquire(user);
+            try {
+                StringBuilder body = new StringBuilder();
+                for (Message message : session.history()) {
+                    body.append(message).append('\n');
+                }
+                send(exchange, 200, body.toString());
+            } finally {
+                sessions.release(session);
+            }
+        }
+    }
+
+    // Имя пользователя из параметра user или null, если оно не задано или недопустимо
+    private static String userName(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("user=")) {
+                String user = URLDecoder.decode(parameter.substring(5), StandardCharsets.UTF_8);
+                return USER_NAME.matcher(user).matches() ? user : null;
+            }
+        }
+        return null;
+    }
+
+    // Читает тело запроса (null, если оно больше допустимого)
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_MESSAGE_BYTES + 1);
+            return body.length > MAX_MESSAGE_BYTES ? null : new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Останавливает сервер и закрывает все сессии
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.close(); // Дожидаемся запросов в работе
+        sessions.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = (int) BotConfig.getLong("server.port", 8080);
+        SessionRegistry sessions = new SessionRegistry(ChatBotLogic::new,
+                BotConfig.getLong("server.idleMs", 10 * 60 * 1000),
+                BotConfig.getLong("server.evictIntervalMs", 30 * 1000));
+        BotServer server = new BotServer(port, sessions);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "server-shutdown"));
+        server.start();
+        System.out.println("Сервер чат-бота слушает порт " + server.getPort());
+    }
+}
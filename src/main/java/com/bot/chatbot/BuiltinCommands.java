@@ -0,0 +1,202 @@
+package com.bot.chatbot;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Встроенные команды бота. Каждая - отдельный {@link CommandHandler}, объявленный в module-info
+ * и META-INF/services; порядок в /help и порядок проверки шаблонов задает {@link CommandHandler.Command#order()}.
+ * Состояние (калькулятор с кэшем выражений) создается вместе с обработчиком - при первом вызове команды.
+ */
+public final class BuiltinCommands {
+    private static final String RATES_UNAVAILABLE = "Не удалось получить курс валют. Попробуйте позже.";
+
+    private BuiltinCommands() {
+    }
+
+    @CommandHandler.Command(name = "help", exact = "/help", kind = CommandRouter.Kind.PURE, order = 10,
+            section = "Основные", help = "/help - показать это сообщение")
+    public static final class Help implements CommandHandler {
+        @Override
+        public String handle(Context context, String message, MatchResult match) {
+            return CommandHandlers.help();
+        }
+    }
+
+    @CommandHandler.Command(name = "greeting", exact = {"привет", "здравствуйте"}, kind = CommandRouter.Kind.USER,
+            order = 20, section = "Основные", help = "Привет - поздороваться с ботом")
+    public static final class Greeting implements CommandHandler {
+        @Override
+        public String handle(Context context, String message, MatchResult match) {
+            return "Привет, " + context.userName() + "! Напишите /help для списка команд.";
+        }
+    }
+
+    @CommandHandler.Command(name = "time", exact = "Который час?", order = 30,
+            section = "Основные", help = "Который час? - текущее время")
+    public static final class Time implements CommandHandler {
+        private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+        @Override
+        public String handle(Context context, String message, MatchResult match) {
+            return "Сейчас " + LocalTime.now().format(FORMAT);
+        }
+    }
+
+    // Арифметическое выражение: "2 * (3 + 4)", "sqrt(16) ^ 2"; есть хотя бы одна цифра и один оператор
+    // или скобка, поэтому конвертация ("100 usd to eur") под шаблон не подходит. Начинается с числа,
+    // скобки, знака или известной функции - обычный текст со скобками ("smile (joke)") уходит в ответ по умолчанию.
+    // Из слов допускаются только имена функций перед скобкой, поэтому "10 apples - 2 pears" - тоже не выражение
+    @CommandHandler.Command(name = "calc",
+            pattern = "(?=[\\d(.+\\-]|(?i:abs|sqrt|round|min|max)\\s*\\()(?=.*\\d)(?=.*[-+*/^(])"
+                    + "(?:[\\d\\s.,()+\\-*/^]|(?i:abs|sqrt|round|min|max)(?=\\s*\\())+",
+            firstChars = "0123456789(.+-asmrASMR", kind = CommandRouter.Kind.PURE, order = 40,
+            section = "Калькулятор", help = {
+                    "выражения: + - * / ^ и скобки (напр: (12 + 4) * 3 ^ 2)",
+                    "функции: abs, sqrt, round, min, max (напр: sqrt(16) + max(1, 5))"})
+    public static final class Expression implements CommandHandler {
+        private final Calculator calculator = new Calculator((int) BotConfig.getLong("calc.cacheSize", 1024)); // Общий кэш выражений
+
+        @Override
+        public String handle(Context context, String message, MatchResult match) {
+            try {
+                return calculator.calculate(message.trim());
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                return "Ошибка: " + e.getMessage() + ". Пример выражения: (12 + 4) * 3 ^ 2";
+            }
+        }
+    }
+
+    @CommandHandler.Command(name = "currency", exact = {"курс валют", "exchange rates"}, kind = CommandRouter.Kind.SNAPSHOT,
+            blocking = CommandRouter.Blocking.NETWORK, order = 50, section = "Финансы", help = "курс валют - курсы 10 валют к рублю")
+    public static final class Currency implements CommandHandler {
+        // Популярные валюты для отображения
+        private static final List<String> POPULAR_CURRENCIES = List.of(
+                "USD", "EUR", "GBP", "JPY", "CNY",
+                "CHF", "CAD", "AUD", "NZD", "TRY");
+
+        @Override
+        public String handle(Context context, String message, MatchResult match) {
+            try {
+                CurrencyRateCache.Snapshot rates = context.rates(); // Из кэша; API - только если кэш пуст
+                return ratesMessage(rates.rates(), rates.fetchedAt());
+            } catch (Exception e) {
+                System.err.println("Ошибка при получении курса валют: " + e.getMessage());
+            }
+            return RATES_UNAVAILABLE;
+        }
+
+        // Формирует сообщение с курсами валют
+        static String ratesMessage(RateTable rates, long fetchedAt) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("📊 Курсы валют к RUB:\n\n");
+
+            // Получаем курс USD к RUB
+            double usdToRub = rates.rate("RUB");
+            if (usdToRub == 0) {
+                return "⚠️ Не удалось получить курс USD/RUB";
+            }
+
+            // Формируем строки для каждой валюты
+            for (String currency : POPULAR_CURRENCIES) {
+                if (currency.equals("USD")) {
+                    sb.append(String.format("🇺🇸 USD/RUB: %.2f\n", usdToRub));
+                    continue;
+                }
+
+                double currencyToUsd = rates.rate(currency); // Поиск в таблице, без повторного разбора JSON
+                if (currencyToUsd > 0) {
+                    double currencyToRub = usdToRub / currencyToUsd;
+                    sb.append(String.format(flag(currency) + " %s/RUB: %.2f\n",
+                            currency, currencyToRub));
+                }
+            }
+
+            // Добавляем время получения курсов
+            sb.append("\n⏳ Данные на " + LocalDateTime.ofInstant(Instant.ofEpochMilli(fetchedAt), ZoneId.systemDefault())
+                    .format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm")));
+            return sb.toString();
+        }
+
+        // Возвращает флаг страны для валюты
+        static String flag(String currency) {
+            switch (currency) {
+                case "EUR": return "🇪🇺";
+                case "GBP": return "🇬🇧";
+                case "JPY": return "🇯🇵";
+                case "CNY": return "🇨🇳";
+                case "CHF": return "🇨🇭";
+                case "CAD": return "🇨🇦";
+                case "AUD": return "🇦🇺";
+                case "NZD": return "🇳🇿";
+                case "TRY": return "🇹🇷";
+                default: return "";
+            }
+        }
+    }
+
+    // "100 EUR в JPY", "convert 250 GBP to CNY"
+    @CommandHandler.Command(name = "conversion",
+            pattern = "(?iu)(?:convert\\s+)?(\\d+(?:[.,]\\d+)?)\\s*([a-z]{3})\\s+(?:в|to|in)\\s+([a-z]{3})",
+            firstChars = "0123456789cC", kind = CommandRouter.Kind.SNAPSHOT,
+            blocking = CommandRouter.Blocking.NETWORK, order = 60,
+            section = "Финансы", help = "100 EUR в JPY - перевод суммы между валютами")
+    public static final class Conversion implements CommandHandler {
+        // Переводит сумму из одной валюты в другую по матрице кросс-курсов
+        @Override
+        public String handle(Context context, String message, MatchResult request) {
+            String amountText = request.group(1).replace(',', '.');
+            String from = request.group(2).toUpperCase(Locale.ROOT);
+            String to = request.group(3).toUpperCase(Locale.ROOT);
+            CurrencyRateCache.Snapshot rates;
+            try {
+                rates = context.rates();
+            } catch (Exception e) {
+                System.err.println("Ошибка при получении курса валют: " + e.getMessage());
+                return RATES_UNAVAILABLE;
+            }
+            CrossRateMatrix matrix = rates.crossRates();
+            int fromId = matrix.idOf(from);
+            int toId = matrix.idOf(to);
+            if (fromId < 0 || toId < 0) {
+                return "Неизвестная валюта: " + (fromId < 0 ? from : to);
+            }
+            double result = matrix.convert(Double.parseDouble(amountText), fromId, toId);
+            if (Double.isNaN(result)) {
+                return "Нет курса для " + from + "/" + to;
+            }
+            return String.format("💱 %s %s = %.2f %s", amountText, from, result, to);
+        }
+    }
+
+    // "найти слово", "/search слово*"
+    @CommandHandler.Command(name = "search", pattern = Search.REGEX, firstChars = "/нН",
+            blocking = CommandRouter.Blocking.DISK, order = 70,
+            section = "История", help = "найти слова - поиск по истории (слово* - по началу слова)")
+    public static final class Search implements CommandHandler {
+        static final String REGEX = "(?isu)(?:/search|найти)\\s+(.+)";
+        static final Pattern PATTERN = Pattern.compile(REGEX); // Для исключения запросов поиска из индекса
+        private static final int RESULTS = 10; // Совпадений в ответе бота
+
+        @Override
+        public String handle(Context context, String message, MatchResult request) {
+            String query = request.group(1).trim();
+            List<Message> found = context.searchHistory(query, RESULTS).toList();
+            if (found.isEmpty()) {
+                return "🔎 Ничего не найдено: " + query;
+            }
+            StringBuilder sb = new StringBuilder("🔎 Найдено (новые сверху):\n");
+            for (Message result : found) {
+                sb.append('\n').append(result);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.bot.chatbot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Калькулятор арифметических выражений.
+ * Выражение разбирается один раз и компилируется в байт-код стековой машины; скомпилированные
+ * выражения хранятся в LRU-кэше, так что повторный запрос не разбирается заново.
+ *
+ * Поддерживаются + - * / ^ (степень, правоассоциативная), скобки, унарный минус и функции
+ * abs, sqrt, min, max, round. Считается в long (с проверкой переполнения), а если результат
+ * не помещается в long или не целый - в BigDecimal с точностью 34 знака.
+ * Длина выражения, глубина вложенности, показатель степени и величина чисел ограничены,
+ * чтобы одно сообщение не могло занять поток надолго.
+ */
+public final class Calculator {
+    private static final int MAX_LENGTH = (int) BotConfig.getLong("calc.maxLength", 256); // Символов в выражении
+    private static final int MAX_DEPTH = (int) BotConfig.getLong("calc.maxDepth", 64); // Вложенность скобок и операций
+    private static final int MAX_EXPONENT = 10_000; // Наибольший показатель степени по модулю
+    private static final int MAX_MAGNITUDE = 10_000; // Наибольший десятичный порядок результата
+    private static final MathContext CONTEXT = MathContext.DECIMAL128; // Точность дробных вычислений
+    private static final MathContext RESULT = new MathContext(32); // Ответ - без двух последних (неточных) знаков
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    // Байт-код: код операции в младшем байте, аргумент (номер константы, число аргументов) - выше
+    private static final int OP_CONST = 0;
+    private static final int OP_ADD = 1;
+    private static final int OP_SUB = 2;
+    private static final int OP_MUL = 3;
+    private static final int OP_DIV = 4;
+    private static final int OP_POW = 5;
+    private static final int OP_NEG = 6;
+    private static final int OP_ABS = 7;
+    private static final int OP_SQRT = 8;
+    private static final int OP_ROUND = 9;
+    private static final int OP_MIN = 10;
+    private static final int OP_MAX = 11;
+
+    private static final String[] FUNCTIONS = {"abs", "sqrt", "round", "min", "max"};
+    private static final int[] FUNCTION_OPS = {OP_ABS, OP_SQRT, OP_ROUND, OP_MIN, OP_MAX};
+    private static final int[] FUNCTION_ARGS = {1, 1, 1, -1, -1}; // -1 - один или больше
+
+    // Результат не целый или не помещается в long: считаем в BigDecimal (без стека вызовов)
+    private static final ArithmeticException INEXACT = new ArithmeticException("inexact");
+
+    private final Map<String, Expression> cache; // Скомпилированные выражения, LRU
+
+    /**
+     * @param cacheSize сколько скомпилированных выражений хранить
+     */
+    public Calculator(int cacheSize) {
+        this.cache = new LinkedHashMap<>(Math.min(cacheSize, 1024) * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Вычисляет выражение
+     * @return "выражение = результат"
+     * @throws IllegalArgumentException если выражение записано с ошибкой
+     * @throws ArithmeticException если результат не определен (деление на ноль и т.п.)
+     */
+    public String calculate(String input) {
+        Expression expression = compile(input);
+        return expression.text() + " = " + format(expression.evaluate());
+    }
+
+    /**
+     * Компилирует выражение (или берет его из кэша)
+     * @throws IllegalArgumentException если выражение записано с ошибкой
+     */
+    public Expression compile(String input) {
+        synchronized (cache) {
+            Expression cached = cache.get(input);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Expression expression = new Parser(input).parse(); // Разбор - вне блокировки
+        synchronized (cache) {
+            cache.put(input, expression);
+        }
+        return expression;
+    }
+
+    // Результат строкой: целое как есть, дробное - без лишних нулей, очень большое - с порядком
+    static String format(Number value) {
+        if (value instanceof Long) {
+            return value.toString();
+        }
+        BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+        int magnitude = decimal.precision() - decimal.scale();
+        return magnitude > -20 && magnitude <= 40 ? decimal.toPlainString() : decimal.toString();
+    }
+
+    /**
+     * Скомпилированное выражение. Неизменяемо, вычисляется из разных потоков одновременно
+     */
+    public static final class Expression {
+        private final String text; // Выражение в обычной записи: "2 * (3 + 4)"
+        private final int[] code; // Байт-код
+        private final long[] longs; // Константы в long (если помещаются)
+        private final BigDecimal[] decimals; // Те же константы в BigDecimal
+        private final boolean integral; // Все константы целые и помещаются в long
+        private final int maxStack; // Наибольшая глубина стека
+        private boolean inexact; // Вычисление в long уже не удалось (гонка безвредна: результат всегда тот же)
+
+        private Expression(String text, int[] code, long[] longs, BigDecimal[] decimals, boolean integral, int maxStack) {
+            this.text = text;
+            this.code = code;
+            this.longs = longs;
+            this.decimals = decimals;
+            this.integral = integral;
+            this.maxStack = maxStack;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        /**
+         * Вычисляет выражение
+         * @return Long, если результат целый и помещается в long, иначе BigDecimal
+         * @throws ArithmeticException если результат не определен или слишком велик
+         */
+        public Number evaluate() {
+            if (integral && !inexact) {
+                try {
+                    return evaluateLong();
+                } catch (ArithmeticException e) {
+                    inexact = true; // Переполнение или дробный результат; повторно исключение не бросаем
+                }
+            }
+            BigDecimal result = evaluateDecimal().round(RESULT).stripTrailingZeros();
+            if (result.scale() <= 0 && result.compareTo(LONG_MIN) >= 0 && result.compareTo(LONG_MAX) <= 0) {
+                return result.longValueExact(); // Например, 1/3*3 или 2^62*2/4
+            }
+            return result;
+        }
+
+        private long evaluateLong() {
+            long[] stack = new long[maxStack];
+            int top = 0;
+            for (int instruction : code) {
+                int arg = instruction >>> 8;
+                switch (instruction & 0xFF) {
+                    case OP_CONST -> stack[top++] = longs[arg];
+                    case OP_ADD -> { top--; stack[top - 1] = Math.addExact(stack[top - 1], stack[top]); }
+                    case OP_SUB -> { top--; stack[top - 1] = Math.subtractExact(stack[top - 1], stack[top]); }
+                    case OP_MUL -> { top--; stack[top - 1] = Math.multiplyExact(stack[top - 1], stack[top]); }
+                    case OP_DIV -> {
+                        top--;
+                        long divisor = stack[top];
+                        if (divisor == 0 || stack[top - 1] % divisor != 0) {
+                            throw INEXACT; // Деление на ноль сообщит BigDecimal
+                        }
+                        stack[top - 1] = Math.divideExact(stack[top - 1], divisor);
+                    }
+                    case OP_POW -> { top--; stack[top - 1] = powExact(stack[top - 1], stack[top]); }
+                    case OP_NEG -> stack[top - 1] = Math.negateExact(stack[top - 1]);
+                    case OP_ABS -> stack[top - 1] = Math.absExact(stack[top - 1]);
+                    case OP_SQRT -> {
+                        long value = stack[top - 1];
+                        long root = value >= 0 ? (long) Math.sqrt((double) value) : -1;
+                        if (root < 0 || root * root != value) {
+                            throw INEXACT;
+                        }
+                        stack[top - 1] = root;
+                    }
+                    case OP_ROUND -> { } // Целое уже округлено
+                    case OP_MIN, OP_MAX -> {
+                        boolean min = (instruction & 0xFF) == OP_MIN;
+                        long result = stack[top - arg];
+                        for (int i = top - arg + 1; i < top; i++) {
+                            result = min ? Math.min(result, stack[i]) : Math.max(result, stack[i]);
+                        }
+                        top -= arg - 1;
+                        stack[top - 1] = result;
+                    }
+                    default -> throw new IllegalStateException("Неизвестная операция " + instruction);
+                }
+            }
+            return stack[0];
+        }
+
+        private BigDecimal evaluateDecimal() {
+            BigDecimal[] stack = new BigDecimal[maxStack];
+            int top = 0;
+            for (int instruction : code) {
+                int arg = instruction >>> 8;
+                BigDecimal result;
+                switch (instruction & 0xFF) {
+                    case OP_CONST -> result = decimals[arg];
+                    case OP_ADD -> result = stack[--top - 1].add(stack[top], CONTEXT);
+                    case OP_SUB -> result = stack[--top - 1].subtract(stack[top], CONTEXT);
+                    case OP_MUL -> result = stack[--top - 1].multiply(stack[top], CONTEXT);
+                    case OP_DIV -> {
+                        if (stack[--top].signum() == 0) {
+                            throw new ArithmeticException("деление на ноль");
+                        }
+                        result = stack[top - 1].divide(stack[top], CONTEXT);
+                    }
+                    case OP_POW -> result = pow(stack[--top - 1], stack[top]);
+                    case OP_NEG -> result = stack[top - 1].negate();
+                    case OP_ABS -> result = stack[top - 1].abs();
+                    case OP_SQRT -> {
+                        if (stack[top - 1].signum() < 0) {
+                            throw new ArithmeticException("корень из отрицательного числа");
+                        }
+                        result = stack[top - 1].sqrt(CONTEXT);
+                    }
+                    case OP_ROUND -> result = stack[top - 1].setScale(0, RoundingMode.HALF_UP);
+                    case OP_MIN, OP_MAX -> {
+                        boolean min = (instruction & 0xFF) == OP_MIN;
+                        result = stack[top - arg];
+                        for (int i = top - arg + 1; i < top; i++) {
+                            result = min ? result.min(stack[i]) : result.max(stack[i]);
+                        }
+                        top -= arg - 1;
+                    }
+                    default -> throw new IllegalStateException("Неизвестная операция " + instruction);
+                }
+                checkMagnitude(result);
+                if ((instruction & 0xFF) == OP_CONST) {
+                    stack[top++] = result;
+                } else {
+                    stack[top - 1] = result; // Операция заменяет свои аргументы результатом
+                }
+            }
+            return stack[0];
+        }
+    }
+
+    // Целая степень с проверкой переполнения
+    private static long powExact(long base, long exponent) {
+        if (exponent < 0 || exponent > MAX_EXPONENT) {
+            throw INEXACT; // Дробный результат или проверка показателя - в BigDecimal
+        }
+        long result = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = Math.multiplyExact(result, base);
+            }
+            exponent >>= 1;
+            if (exponent > 0) {
+                base = Math.multiplyExact(base, base);
+            }
+        }
+        return result;
+    }
+
+    private static BigDecimal pow(BigDecimal base, BigDecimal exponent) {
+        int n;
+        try {
+            n = exponent.intValueExact();
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("показатель степени должен быть целым числом до " + MAX_EXPONENT);
+        }
+        if (Math.abs(n) > MAX_EXPONENT) {
+            throw new ArithmeticException("показатель степени должен быть целым числом до " + MAX_EXPONENT);
+        }
+        if (n < 0 && base.signum() == 0) {
+            throw new ArithmeticException("деление на ноль");
+        }
+        return base.pow(n, CONTEXT);
+    }
+
+    // Не дает числам расти без предела (порядок 10^10000 и больше)
+    private static void checkMagnitude(BigDecimal value) {
+        if (value.signum() != 0 && Math.abs((long) value.precision() - value.scale()) > MAX_MAGNITUDE) {
+            throw new ArithmeticException("слишком большое число");
+        }
+    }
+
+    /**
+     * Разбор рекурсивным спуском сразу в байт-код:
+     * выражение = слагаемое {(+|-) слагаемое}, слагаемое = множитель {(*|/) множитель},
+     * множитель = -множитель | степень, степень = число | (выражение) | функция(...) [^ множитель]
+     */
+    private static final class Parser {
+        private final String input;
+        private final StringBuilder text = new StringBuilder(); // Выражение в обычной записи
+        private final List<BigDecimal> constants = new ArrayList<>();
+        private int[] code = new int[16];
+        private int size; // Длина байт-кода
+        private int pos; // Позиция в строке
+        private int depth; // Текущая вложенность
+        private int stack; // Глубина стека после текущей инструкции
+        private int maxStack;
+
+        Parser(String input) {
+            this.input = input;
+        }
+
+        Expression parse() {
+            if (input.length() > MAX_LENGTH) {
+                throw new IllegalArgumentException("выражение длиннее " + MAX_LENGTH + " символов");
+            }
+            expression();
+            skipSpaces();
+            if (pos < input.length()) {
+                throw error("лишний символ '" + input.charAt(pos) + "'");
+            }
+            long[] longs = new long[constants.size()];
+            BigDecimal[] decimals = constants.toArray(new BigDecimal[0]);
+            boolean integral = true;
+            for (int i = 0; i < decimals.length; i++) {
+                try {
+                    longs[i] = decimals[i].longValueExact();
+                } catch (ArithmeticException e) {
+                    integral = false; // Дробная или очень большая константа - сразу BigDecimal
+                }
+            }
+            return new Expression(text.toString(), Arrays.copyOf(code, size), longs, decimals, integral, maxStack);
+        }
+
+        private void expression() {
+            enter();
+            term();
+            for (char op = peek(); op == '+' || op == '-'; op = peek()) {
+                pos++;
+                text.append(' ').append(op).append(' ');
+                term();
+                emit(op == '+' ? OP_ADD : OP_SUB, -1);
+            }
+            depth--;
+        }
+
+        private void term() {
+            factor();
+            for (char op = peek(); op == '*' || op == '/'; op = peek()) {
+                pos++;
+                text.append(' ').append(op).append(' ');
+                factor();
+                emit(op == '*' ? OP_MUL : OP_DIV, -1);
+            }
+        }
+
+        private void factor() {
+            enter();
+            char c = peek();
+            if (c == '-' || c == '+') {
+                pos++;
+                text.append(c);
+                factor();
+                if (c == '-') {
+                    emit(OP_NEG, 0);
+                }
+            } else {
+                power();
+            }
+            depth--;
+        }
+
+        private void power() {
+            primary();
+            if (peek() == '^') {
+                pos++;
+                text.append(" ^ ");
+                factor(); // Правоассоциативно: 2^3^2 = 2^9; 2^-1 допустимо
+                emit(OP_POW, -1);
+            }
+        }
+
+        private void primary() {
+            char c = peek();
+            if (c == '(') {
+                pos++;
+                text.append('(');
+                expression();
+                expect(')');
+                text.append(')');
+            } else if (c >= '0' && c <= '9' || c == '.') {
+                number();
+            } else if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+                function();
+            } else {
+                throw error(c == 0 ? "выражение оборвано" : "неожиданный символ '" + c + "'");
+            }
+        }
+
+        private void number() {
+            int start = pos;
+            while (pos < input.length() && (Character.isDigit(input.charAt(pos)) || input.charAt(pos) == '.')) {
+                pos++;
+            }
+            String literal = input.substring(start, pos);
+            BigDecimal value;
+            try {
+                value = new BigDecimal(literal);
+            } catch (NumberFormatException e) {
+                throw error("некорректное число " + literal);
+            }
+            text.append(literal);
+            constants.add(value);
+            emit(OP_CONST | (constants.size() - 1) << 8, 1);
+        }
+
+        private void function() {
+            int start = pos;
+            while (pos < input.length() && Character.isLetter(input.charAt(pos))) {
+                pos++;
+            }
+            String name = input.substring(start, pos).toLowerCase(Locale.ROOT);
+            int id = Arrays.asList(FUNCTIONS).indexOf(name);
+            if (id < 0) {
+                throw new IllegalArgumentException("неизвестная функция " + input.substring(start, pos));
+            }
+            expect('(');
+            text.append(name).append('(');
+            int args = 0;
+            do {
+                if (args > 0) {
+                    text.append(", ");
+                }
+                expression();
+                args++;
+            } while (consume(','));
+            expect(')');
+            text.append(')');
+            if (FUNCTION_ARGS[id] > 0 && args != FUNCTION_ARGS[id]) {
+                throw new IllegalArgumentException("функция " + name + " принимает " + FUNCTION_ARGS[id] + " аргумент");
+            }
+            emit(FUNCTION_OPS[id] | args << 8, 1 - args);
+        }
+
+        // Добавляет инструкцию; delta - изменение глубины стека
+        private void emit(int instruction, int delta) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = instruction;
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw new IllegalArgumentException("слишком глубокая вложенность (больше " + MAX_DEPTH + ")");
+            }
+        }
+
+        private char peek() {
+            skipSpaces();
+            return pos < input.length() ? input.charAt(pos) : 0;
+        }
+
+        private boolean consume(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("ожидалась '" + c + "'");
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " (позиция " + (pos + 1) + ")");
+        }
+    }
+}
@@ -1,256 +1,395 @@
 package com.bot.chatbot;
 
-import javafx.scene.control.ListView;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class ChatBotLogic implements IBot {
-    private static final String HISTORY_DIR = "user_histories"; // Директория для хранения истории
-    private static final String CURRENCY_API_URL = "https://api.exchangerate-api.com/v4/latest/USD"; // API курсов валют
-    private static final String API_KEY = ""; // Ключ API
-
-    // Популярные валюты для отображения
-    private static final String[] POPULAR_CURRENCIES = {
-            "USD", "EUR", "GBP", "JPY", "CNY",
-            "CHF", "CAD", "AUD", "NZD", "TRY"
-    };
-
-    private String userName; // Имя пользователя
-    private List<Message> messageHistory; // История сообщений
-    private Pattern currencyPattern; // Регулярное выражение для запроса курса валют
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class ChatBotLogic implements IBot, CommandHandler.Context {
+    // Потоки для медленных ответов (по виртуальному потоку на запрос)
+    private static final ExecutorService RESPONSE_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final long RESPONSE_TIMEOUT_MS = BotConfig.getLong("response.timeoutMs", 15000); // Таймаут ответа
+
+    private static final int INDEX_CATCH_UP_CHUNK = 10_000; // Сообщений за одно чтение при достройке индекса
+
+    private static final Histogram RESPONSE_TIME = BotMetrics.histogram("response"); // Полное время ответа
+    static final int HISTORY_PAGE_SIZE = (int) BotConfig.getLong("history.pageSize", 200); // Сообщений на страницу
+
+    private String userName; // Имя пользователя (в форме NFC)
+    private final UserDirectory users; // Каталог истории и индекс пользователей
+    private final AtomicInteger oldestLoaded = new AtomicInteger(); // Номер самого старого загруженного сообщения (поток JavaFX и поток подгрузки)
+    private final HistoryStore historyStore; // Журнал истории на диске
+    private final HistoryWriter historyWriter; // Фоновая запись журнала
+    private final CommandRouter router; // Маршрутизатор команд (общий для всех пользователей)
+    private final CurrencyRateCache rateCache; // Кэш курсов валют (общий для всех пользователей)
+    private final ResponseCache responseCache; // Кэш готовых ответов (общий; null - выключен)
+    private final Path searchIndexFile; // Индекс поиска рядом с файлом истории
+    private final Object searchLock = new Object(); // Индекс поиска (построение, достройка, сохранение)
+    private final Object storeLock = new Object(); // Перенос файлов и создание подкаталога пользователя
+    private SearchIndex searchIndex; // Индекс поиска (загружается при первом поиске)
+    private boolean searchIndexDirty; // Индекс изменился после сохранения
+    private volatile boolean migrated; // Файлы плоского вида проверены (при первом обращении к истории)
+    private volatile boolean registered; // Подкаталог создан, пользователь в индексе (при первой записи)
+    private final boolean readOnly; // Без переноса файлов и сохранения индекса поиска (пакетный прогон)
 
     public ChatBotLogic(String userName) {
-        this.userName = userName;
-        this.messageHistory = new ArrayList<>();
-        // Паттерн для распознавания запроса курса валют (регистронезависимый)
-        this.currencyPattern = Pattern.compile("(?i)(курс валют|exchange rates)");
-        createHistoryDirectory(); // Создаем директорию для истории
+        this(userName, CurrencyRateCache.shared());
     }
 
-    // Создает директорию для хранения истории чатов
-    private void createHistoryDirectory() {
-        try {
-            Path path = Paths.get(HISTORY_DIR);
-            if (!Files.exists(path)) {
-                Files.createDirectory(path); // Создаем, если не существует
+    public ChatBotLogic(String userName, CurrencyRateCache rateCache) {
+        this(userName, rateCache, false);
+    }
+
+    /**
+     * Бот, который только отвечает: файлы плоского вида не переносятся, индекс поиска строится в памяти
+     * и не сохраняется. Сообщения он не сохраняет - вызывающий не должен вызывать saveMessage
+     */
+    public static ChatBotLogic readOnly(String userName) {
+        return new ChatBotLogic(userName, CurrencyRateCache.shared(), true);
+    }
+
+    private ChatBotLogic(String userName, CurrencyRateCache rateCache, boolean readOnly) {
+        this.readOnly = readOnly;
+        this.migrated = readOnly; // Переносить нечего: файлы не трогаем
+        this.userName = UserDirectory.normalize(userName);
+        this.users = UserDirectory.shared();
+        this.rateCache = rateCache;
+        this.responseCache = ResponseCache.shared();
+        this.router = CommandHandlers.router();
+        this.historyStore = users.openStore(this.userName); // Без обращения к диску: бот без истории ничего не пишет
+        this.historyWriter = new HistoryWriter(historyStore);
+        this.searchIndexFile = historyStore.getFile("idx");
+    }
+
+    // Хранилище истории; при первом обращении переносит файлы плоского вида
+    private HistoryStore history() {
+        if (!migrated) {
+            synchronized (storeLock) {
+                if (!migrated) {
+                    users.migrateIfNew(userName);
+                    migrated = true;
+                }
+            }
+        }
+        return historyStore;
+    }
+
+    // Перед первой записью истории: подкаталог пользователя и запись в индексе
+    private void register() {
+        if (registered) {
+            return;
+        }
+        synchronized (storeLock) {
+            if (!registered) {
+                history();
+                try {
+                    users.register(userName);
+                    registered = true;
+                } catch (IOException e) {
+                    System.err.println("Ошибка при создании директории истории: " + e.getMessage());
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Ошибка при создании директории истории: " + e.getMessage());
         }
     }
 
     // Основной метод обработки сообщений
     @Override
     public String getResponse(String message) {
-        // Проверяем команды и возвращаем соответствующий ответ
-        if (message.equalsIgnoreCase("/help")) {
-            return getHelpCommands();
-        } else if (message.equalsIgnoreCase("Который час?")) {
-            return getCurrentTime();
-        } else if (message.matches("\\d+\\s*\\*\\s*\\d+")) { // Проверка на умножение
-            return handleMultiplication(message);
-        } else if (message.equalsIgnoreCase("привет") || message.equalsIgnoreCase("здравствуйте")) {
-            return getGreeting();
-        } else if (currencyPattern.matcher(message).matches()) { // Проверка запроса курса валют
-            return handleCurrencyRequest();
-        }
-        return getDefaultResponse(); // Ответ по умолчанию
+        return getResponse(message, router.resolve(message));
     }
 
-    // Возвращает текущее время
-    private String getCurrentTime() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
-        return "Сейчас " + LocalTime.now().format(formatter);
+    // Ответ по уже найденной команде (с замером времени)
+    private String getResponse(String message, CommandRouter.Match command) {
+        if (!BotMetrics.ENABLED) {
+            return respond(message, command);
+        }
+        long start = System.nanoTime();
+        try {
+            return respond(message, command);
+        } finally {
+            RESPONSE_TIME.recordSince(start); // Поиск команды + обработчик (или кэш)
+        }
     }
 
-    // Обрабатывает операцию умножения
-    private String handleMultiplication(String equation) {
-        try {
-            String[] parts = equation.split("\\s*\\*\\s*"); // Разделяем по *
-            int num1 = Integer.parseInt(parts[0].trim());
-            int num2 = Integer.parseInt(parts[1].trim());
-            int result = num1 * num2;
-            return String.format("%d * %d = %d", num1, num2, result);
-        } catch (Exception e) {
-            return "Ошибка: введите уравнение в формате 'число * число' (например: 12 * 4)";
+    // Ответ из кэша, если команда это допускает, иначе - от обработчика
+    private String respond(String message, CommandRouter.Match command) {
+        CommandRouter.Kind kind = responseCache == null ? CommandRouter.Kind.VOLATILE : command.kind();
+        if (kind == CommandRouter.Kind.VOLATILE) {
+            return command.handle(this, message);
         }
+        CommandHandler.Context context = this;
+        CurrencyRateCache.Snapshot snapshot = null;
+        if (kind == CommandRouter.Kind.SNAPSHOT) {
+            if (!rateCache.isWarm()) {
+                return command.handle(this, message); // Курсов еще нет: ответ зависит от сети
+            }
+            try {
+                snapshot = rateCache.get(); // Снимок в памяти - без ожидания; устаревший обновится в фоне
+            } catch (IOException e) {
+                return command.handle(this, message);
+            }
+            context = new PinnedRates(this, snapshot); // Обработчик отвечает по снимку из ключа кэша
+        }
+        String user = kind == CommandRouter.Kind.USER ? userName : null;
+        String response = responseCache.get(user, message, snapshot);
+        if (response == null) {
+            response = command.handle(context, message);
+            responseCache.put(user, message, snapshot, response);
+        }
+        return response;
     }
 
-    // Возвращает приветственное сообщение
-    private String getGreeting() {
-        return "Привет, " + userName + "! Напишите /help для списка команд.";
+    // Асинхронный ответ: быстрые команды отвечают сразу, остальные - в виртуальном потоке.
+    // Сетевые команды при загруженном кэше курсов отвечают из памяти, а чтение истории ждет диска всегда
+    @Override
+    public CompletionStage<String> getResponseAsync(String message) {
+        CommandRouter.Match command = router.resolve(message); // Один поиск команды на сообщение
+        CommandRouter.Blocking blocking = command.blocking();
+        if (blocking == CommandRouter.Blocking.NONE || blocking == CommandRouter.Blocking.NETWORK && rateCache.isWarm()) {
+            return CompletableFuture.completedFuture(getResponse(message, command)); // Ответ в том же кадре
+        }
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        Future<?> task = RESPONSE_EXECUTOR.submit(() -> {
+            try {
+                reply.complete(getResponse(message, command));
+            } catch (RuntimeException e) {
+                reply.completeExceptionally(e);
+            }
+        });
+        reply.whenComplete((result, error) -> {
+            if (reply.isCancelled() || error instanceof TimeoutException) {
+                // Прерываем ожидание сети; чтение истории не прерываем - прерывание закрыло бы каналы файлов
+                task.cancel(blocking == CommandRouter.Blocking.NETWORK);
+            }
+        });
+        return reply.orTimeout(RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
     }
 
-    // Ответ по умолчанию
-    private String getDefaultResponse() {
-        return "Не понимаю. Напишите /help для списка команд.";
+    // Имя пользователя сессии
+    @Override
+    public String userName() {
+        return userName;
     }
 
-    // Обрабатывает запрос курса валют
-    private String handleCurrencyRequest() {
-        try {
-            String response = getCurrencyRates(); // Получаем данные от API
-            if (response != null) {
-                return buildCurrencyRatesMessage(response); // Форматируем ответ
-            }
-        } catch (Exception e) {
-            System.err.println("Ошибка при получении курса валют: " + e.getMessage());
-        }
-        return "Не удалось получить курс валют. Попробуйте позже.";
+    // Снимок курсов валют сессии: из кэша, API - только если кэш пуст
+    @Override
+    public CurrencyRateCache.Snapshot rates() throws IOException {
+        return rateCache.get();
     }
 
-    // Формирует сообщение с курсами валют
-    private String buildCurrencyRatesMessage(String json) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("📊 Курсы валют к RUB:\n\n");
-
-        // Получаем курс USD к RUB
-        double usdToRub = parseCurrencyRate(json, "RUB");
-        if (usdToRub == 0) {
-            return "⚠️ Не удалось получить курс USD/RUB";
+    /**
+     * Сессия с закрепленным снимком курсов: курсы могут обновиться между поиском в кэше ответов
+     * и вызовом обработчика, а ответ должен соответствовать снимку, под которым он кэшируется
+     */
+    private record PinnedRates(ChatBotLogic session, CurrencyRateCache.Snapshot snapshot) implements CommandHandler.Context {
+        @Override
+        public String userName() {
+            return session.userName;
         }
 
-        // Формируем строки для каждой валюты
-        for (String currency : POPULAR_CURRENCIES) {
-            if (currency.equals("USD")) {
-                sb.append(String.format("🇺🇸 USD/RUB: %.2f\n", usdToRub));
-                continue;
-            }
+        @Override
+        public CurrencyRateCache.Snapshot rates() {
+            return snapshot;
+        }
 
-            double currencyToUsd = parseCurrencyRate(json, currency);
-            if (currencyToUsd > 0) {
-                double currencyToRub = usdToRub / currencyToUsd;
-                sb.append(String.format(getCurrencyFlag(currency) + " %s/RUB: %.2f\n",
-                        currency, currencyToRub));
-            }
+        @Override
+        public Stream<Message> searchHistory(String query, int limit) {
+            return session.searchHistory(query, limit);
         }
+    }
 
-        // Добавляем время обновления
-        sb.append("\n⏳ Данные на " + LocalDateTime.now().format(
-                DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm")));
-        return sb.toString();
+    // Формирует сообщение с курсами валют
+    String buildCurrencyRatesMessage(RateTable rates, long fetchedAt) {
+        return BuiltinCommands.Currency.ratesMessage(rates, fetchedAt);
     }
 
     // Возвращает флаг страны для валюты
     String getCurrencyFlag(String currency) {
-        switch (currency) {
-            case "EUR": return "🇪🇺";
-            case "GBP": return "🇬🇧";
-            case "JPY": return "🇯🇵";
-            case "CNY": return "🇨🇳";
-            case "CHF": return "🇨🇭";
-            case "CAD": return "🇨🇦";
-            case "AUD": return "🇦🇺";
-            case "NZD": return "🇳🇿";
-            case "TRY": return "🇹🇷";
-            default: return "";
+        return BuiltinCommands.Currency.flag(currency);
+    }
+
+    // Парсит курс валюты из JSON
+    double parseCurrencyRate(String json, String currency) {
+        try {
+            return RateTable.parse(json).rate(currency);
+        } catch (IOException e) {
+            return 0.0;
         }
     }
 
-    // Получает данные о курсах валют от API
-    private String getCurrencyRates() throws IOException {
-        URL url = new URL(CURRENCY_API_URL + "?apikey=" + API_KEY);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setConnectTimeout(5000); // Таймаут подключения 5 сек
-        connection.setReadTimeout(5000); // Таймаут чтения 5 сек
+    // Возвращает список доступных команд (собирается по описаниям обработчиков)
+    @Override
+    public String getHelpCommands() {
+        return CommandHandlers.help();
+    }
+
+    // Сохраняет сообщение в историю; в журнал оно дописывается фоновым потоком
+    @Override
+    public void saveMessage(Message message) {
+        register();
+        users.index().recordMessages(userName, 1, System.currentTimeMillis());
+        historyWriter.submit(message); // Без файлового ввода-вывода в вызывающем потоке
+    }
 
+    // Ищет сообщения в истории
+    @Override
+    public Stream<Message> searchHistory(String query, int limit) {
         try {
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                StringBuilder response = new StringBuilder();
-                try (BufferedReader in = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream()))) {
-                    String inputLine;
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine); // Читаем ответ
-                    }
+            int[] positions = searchIndex().search(query, limit);
+            return history().readAt(positions).stream();
+        } catch (IOException e) {
+            System.err.println("Ошибка поиска по истории: " + e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Индекс поиска, догнавший историю на диске: при первом обращении читается из файла, перед каждым
+     * поиском достраивается по новым сообщениям. Номера берутся из хранилища, а не из счетчика сохраненных
+     * сообщений, поэтому сообщения других писателей той же истории (второй процесс, вторая сессия) их не сдвигают
+     */
+    private SearchIndex searchIndex() throws IOException {
+        synchronized (searchLock) {
+            historyWriter.flush(); // Все сохраненные сообщения - в файлах истории
+            int total = history().readPage(-1, 0).total();
+            SearchIndex index = searchIndex != null ? searchIndex : SearchIndex.load(searchIndexFile);
+            if (index == null || index.size() > total) {
+                index = new SearchIndex(); // Индекса нет или история короче индекса
+            }
+            searchIndexDirty |= index.size() < total;
+            while (index.size() < total) {
+                int to = Math.min(total, index.size() + INDEX_CATCH_UP_CHUNK);
+                HistoryStore.Page page = historyStore.readPage(to, to - index.size());
+                index.advanceTo(page.firstIndex()); // Старые сообщения могли быть удалены политикой хранения
+                for (Message message : page.messages()) {
+                    index.add(indexableText(message));
                 }
-                return response.toString();
+                index.advanceTo(to);
             }
-        } finally {
-            connection.disconnect(); // Закрываем соединение
+            searchIndex = index;
+            return index;
         }
-        return null;
     }
 
-    // Парсит курс валюты из JSON
-    double parseCurrencyRate(String json, String currency) {
-        Pattern pattern = Pattern.compile("\"" + currency + "\":(\\d+\\.?\\d*)");
-        Matcher matcher = pattern.matcher(json);
-        return matcher.find() ? Double.parseDouble(matcher.group(1)) : 0.0;
+    // Удаляет историю, архивы и индекс поиска; номера новых сообщений продолжают прежние
+    @Override
+    public void clearHistory() {
+        synchronized (searchLock) {
+            try {
+                historyWriter.flush(); // Очередь записи тоже относится к удаляемой истории
+                register();
+                historyStore.clear();
+                searchIndex = null; // Будет построен заново по пустой истории
+                searchIndexDirty = false;
+                Files.deleteIfExists(searchIndexFile);
+            } catch (IOException e) {
+                System.err.println("Ошибка очистки истории: " + e.getMessage());
+            }
+        }
+        oldestLoaded.set(0);
     }
 
-    // Возвращает список доступных команд
-    @Override
-    public String getHelpCommands() {
-        return """
-            📋 Доступные команды:
-            
-            Основные:
-            • /help - показать это сообщение
-            • Привет - поздороваться с ботом
-            • Который час? - текущее время
-            
-            Калькулятор:
-            • число * число - умножение (напр: 5 * 3)
-            
-            Финансы:
-            • курс валют - курсы 10 валют к рублю
-            
-            Для выхода закройте окно чата.""";
+    // Текст для индекса; сами запросы поиска не индексируются, чтобы не находить их
+    private static String indexableText(Message message) {
+        return message.isUser() && BuiltinCommands.Search.PATTERN.matcher(message.getText()).matches() ? "" : message.getText();
     }
 
-    // Сохраняет сообщение в историю
-    @Override
-    public void saveMessage(Message message) {
-        messageHistory.add(message);
+    // Сохраняет индекс поиска, если он менялся
+    private void saveSearchIndex() {
+        synchronized (searchLock) {
+            if (readOnly || searchIndex == null || !searchIndexDirty) {
+                return;
+            }
+            try {
+                searchIndex.save(searchIndexFile);
+                searchIndexDirty = false;
+            } catch (IOException e) {
+                System.err.println("Ошибка сохранения индекса поиска: " + e.getMessage());
+            }
+        }
     }
 
-    // Загружает историю сообщений из файла
+    // Загружает последнюю страницу истории из файла
     @Override
-    public void loadHistoryFromFile(ListView<Message> messageListView) {
-        String filename = HISTORY_DIR + File.separator + "history_" + userName + ".dat";
-        File file = new File(filename);
-
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                List<Message> history = (List<Message>) ois.readObject();
-                messageHistory = history;
-                messageListView.getItems().addAll(history); // Добавляем в ListView
-                return;
-            } catch (Exception e) {
-                System.err.println("Ошибка загрузки истории: " + e.getMessage());
+    public Stream<Message> loadHistory() {
+        oldestLoaded.set(0);
+        long start = BotMetrics.start();
+        try {
+            historyWriter.flush(); // Дописываем очередь, чтобы прочитать актуальный журнал
+            HistoryStore.Page page = history().readPage(-1, HISTORY_PAGE_SIZE); // Только последние сообщения
+            if (page.total() > 0) {
+                users.index().recordSize(userName, page.total()); // Пользователь без истории в индекс не попадает
+            }
+            if (!page.messages().isEmpty()) {
+                oldestLoaded.set(page.firstIndex());
+                return page.messages().stream();
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка загрузки истории: " + e.getMessage());
+        } finally {
+            if (BotMetrics.ENABLED) {
+                BotMetrics.HISTORY_LOAD.recordSince(start);
             }
         }
 
-        // Если файла нет или ошибка чтения - создаем новую историю
-        messageHistory = new ArrayList<>();
+        // Если истории нет или ошибка чтения - создаем новую историю
         Message welcomeMessage = new Message("Бот",
                 "Привет, " + userName + "! Я чат-бот.\nНапишите /help для списка команд.",
-                LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm")), false);
-        messageHistory.add(welcomeMessage);
-        messageListView.getItems().add(welcomeMessage);
+                System.currentTimeMillis(), false);
+        saveMessage(welcomeMessage);
+        return Stream.of(welcomeMessage);
     }
 
-    // Сохраняет историю сообщений в файл
+    // Загружает страницу сообщений, предшествующих уже загруженным
     @Override
-    public void saveHistoryToFile() {
-        String filename = HISTORY_DIR + File.separator + "history_" + userName + ".dat";
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(messageHistory); // Сериализуем историю
+    public Stream<Message> loadOlderHistory() {
+        int before = oldestLoaded.get();
+        if (before <= 0) {
+            return Stream.empty();
+        }
+        try {
+            HistoryStore.Page page = history().readPage(before, HISTORY_PAGE_SIZE);
+            if (!oldestLoaded.compareAndSet(before, page.firstIndex())) {
+                return Stream.empty(); // Историю очистили или перечитали во время чтения
+            }
+            return page.messages().stream();
         } catch (IOException e) {
-            System.err.println("Ошибка сохранения истории: " + e.getMessage());
+            System.err.println("Ошибка загрузки истории: " + e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    // Сворачивает журнал в файл истории (контрольная точка); индекс пользователей сохраняется при выходе
+    @Override
+    public void saveHistoryToFile() {
+        if (registered) { // Иначе в этой сессии история не писалась
+            long start = BotMetrics.start();
+            try {
+                historyWriter.flush(); // Сначала все сообщения из очереди
+                long bytes = historyStore.checkpoint();
+                if (BotMetrics.ENABLED) {
+                    BotMetrics.HISTORY_SAVE.recordSince(start);
+                    BotMetrics.historySaved(bytes);
+                }
+            } catch (IOException e) {
+                System.err.println("Ошибка сохранения истории: " + e.getMessage());
+            }
         }
+        saveSearchIndex();
+    }
+
+    // Дописывает очередь записи и останавливает фоновый поток
+    @Override
+    public void close() {
+        historyWriter.close();
+        saveSearchIndex();
     }
 }
\ No newline at end of file
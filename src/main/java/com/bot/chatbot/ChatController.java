@@ -1,18 +1,28 @@
 package com.bot.chatbot;
 
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
-import javafx.scene.layout.HBox;
-import javafx.scene.text.Text;
 import javafx.stage.Stage;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 public class ChatController {
     @FXML
@@ -20,10 +30,34 @@ public class ChatController {
     @FXML
     TextArea inputTextArea; // Поле ввода сообщения
     @FXML private MenuItem clearChatMenuItem; // Пункт меню "Очистить чат"
+    @FXML private TextField searchField; // Поиск по истории
+
+    private static final int SEARCH_LIMIT = 200; // Результатов поиска в списке
 
     private MainApp mainApp; // Ссылка на главное приложение
-    private ChatBotLogic chatBotLogic; // Логика чат-бота
+    private IBot chatBotLogic; // Логика чат-бота (без зависимости от JavaFX)
     private Stage primaryStage; // Главное окно
+    private ObservableList<Message> chatItems; // Сообщения чата (список может временно показывать результаты поиска)
+    private boolean loadingOlder; // Идет загрузка старых сообщений
+    private boolean historyExhausted; // Вся история уже загружена
+    private final Map<Message, Slot> pendingReplies = new IdentityHashMap<>(); // Заглушка "печатает…" -> место ожидаемого ответа
+    private final Deque<Slot> unsaved = new ArrayDeque<>(); // Сообщения в порядке чата, ждущие сохранения за ответом, который еще не пришел
+    private CompletableFuture<Void> clearing = CompletableFuture.completedFuture(null); // Удаление истории в фоне (очистки идут по очереди)
+
+    /**
+     * Место сообщения в истории. Занимается, когда сообщение появляется в чате (для медленного ответа - при отправке
+     * запроса), поэтому история на диске идет в том же порядке, что и чат
+     */
+    private static final class Slot {
+        private final CompletableFuture<String> reply; // Ожидаемый ответ (null - сообщение уже есть)
+        private Message message; // null, пока ответ не пришел
+        private boolean skipped; // Ответ отменен - место пропускается
+
+        Slot(Message message, CompletableFuture<String> reply) {
+            this.message = message;
+            this.reply = reply;
+        }
+    }
 
     // Устанавливает ссылку на главное приложение
     public void setMainApp(MainApp mainApp) {
@@ -42,11 +76,13 @@ public class ChatController {
 
     // Инициализирует чат
     public void initChat() {
-        messageListView.setCellFactory(param -> new MessageCell()); // Настраиваем отображение сообщений
+        chatItems = messageListView.getItems();
+        messageListView.setCellFactory(param -> new MessageCell(this::loadOlderHistory)); // Ячейки переиспользуют свои узлы
         inputTextArea.setOnKeyPressed(this::handleKeyPress); // Обработка нажатия клавиш
         clearChatMenuItem.setOnAction(event -> clearChat()); // Обработка очистки чата
+        searchField.textProperty().addListener((observable, oldQuery, query) -> filterHistory(query)); // Поиск по мере ввода
         loadHistory(); // Загружаем историю
-        if (messageListView.getItems().isEmpty()) {
+        if (chatItems.isEmpty()) {
             addWelcomeMessage(); // Добавляем приветствие, если чат пуст
         }
     }
@@ -69,33 +105,99 @@ public class ChatController {
     void sendMessage() {
         String text = inputTextArea.getText().trim();
         if (!text.isEmpty()) {
+            if (messageListView.getItems() != chatItems) {
+                searchField.clear(); // Новое сообщение показываем в чате, а не среди результатов
+            }
             // Создаем и добавляем сообщение пользователя
             Message userMessage = createMessage(text, true);
             addMessageToChat(userMessage);
-            // Получаем и добавляем ответ бота
-            String botResponse = chatBotLogic.getResponse(text);
-            Message botMessage = createMessage(botResponse, false);
-            addMessageToChat(botMessage);
+            // Получаем ответ бота: быстрые команды отвечают сразу, медленные - через заглушку
+            CompletableFuture<String> reply = chatBotLogic.getResponseAsync(text).toCompletableFuture();
+            if (reply.isDone()) {
+                addMessageToChat(createMessage(reply.getNow(null), false));
+            } else {
+                showTypingPlaceholder(reply);
+            }
             inputTextArea.clear(); // Очищаем поле ввода
             scrollToBottom(); // Прокручиваем вниз
         }
     }
 
+    // Показывает "печатает…" до прихода ответа
+    private void showTypingPlaceholder(CompletableFuture<String> reply) {
+        Message placeholder = createMessage("печатает…", false);
+        chatItems.add(placeholder); // Заглушка не сохраняется в историю
+        Slot slot = new Slot(null, reply); // Следующие сообщения сохранятся после ответа
+        unsaved.add(slot);
+        pendingReplies.put(placeholder, slot);
+        reply.whenComplete((response, error) -> Platform.runLater(() -> {
+            if (pendingReplies.remove(placeholder) == null) {
+                return; // Чат очищен или окно закрыто
+            }
+            int index = chatItems.indexOf(placeholder);
+            if (error instanceof CancellationException) {
+                chatItems.remove(placeholder);
+                slot.skipped = true;
+                saveReady();
+                return;
+            }
+            String text = error == null ? response : describeError(error);
+            Message botMessage = createMessage(text, false);
+            if (index >= 0) {
+                chatItems.set(index, botMessage); // Заменяем заглушку ответом
+            } else {
+                chatItems.add(botMessage);
+            }
+            slot.message = botMessage;
+            saveReady();
+            scrollToBottom();
+        }));
+    }
+
+    // Текст ответа при ошибке или таймауте
+    private static String describeError(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        return cause instanceof TimeoutException
+                ? "Бот не успел ответить. Попробуйте позже."
+                : "Не удалось получить ответ. Попробуйте позже.";
+    }
+
+    // Отменяет ожидаемые ответы; сообщения, ждавшие их, сохраняются
+    private void cancelPendingReplies() {
+        for (Slot slot : new ArrayList<>(pendingReplies.values())) {
+            slot.reply.cancel(true);
+            slot.skipped = true;
+        }
+        pendingReplies.clear();
+        saveReady();
+    }
+
     // Создает объект сообщения
     private Message createMessage(String text, boolean isUser) {
         return new Message(
                 isUser ? mainApp.getUserName() : "Бот", // Автор
                 text, // Текст
-                LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm")), // Время
+                System.currentTimeMillis(), // Время
                 isUser // Флаг пользователя/бота
         );
     }
 
-    // Добавляет сообщение в чат и сохраняет его
+    // Добавляет сообщение в чат и сохраняет его (после ответов, которые еще не пришли)
     private void addMessageToChat(Message message) {
-        messageListView.getItems().add(message); // Добавляем в ListView
-        chatBotLogic.saveMessage(message); // Сохраняем в логике
-        chatBotLogic.saveHistoryToFile(); // Сохраняем в файл
+        chatItems.add(message); // Добавляем в ListView
+        unsaved.add(new Slot(message, null));
+        saveReady();
+    }
+
+    // Сохраняет сообщения по порядку, пока не встретится место ответа, который еще не пришел
+    private void saveReady() {
+        while (!unsaved.isEmpty() && (unsaved.peek().message != null || unsaved.peek().skipped)) {
+            Slot slot = unsaved.poll();
+            if (slot.message != null) {
+                chatBotLogic.saveMessage(slot.message); // Сохраняем в логике (дописывается в журнал)
+            }
+        }
     }
 
     // Добавляет приветственное сообщение
@@ -109,13 +211,69 @@ public class ChatController {
 
     // Очищает чат
     void clearChat() {
-        messageListView.getItems().clear(); // Очищаем ListView
+        cancelPendingReplies(); // Ответы на старые сообщения больше не нужны
+        unsaved.clear();
+        historyExhausted = true; // Очищенный чат не подгружает старую историю
+        searchField.clear(); // Показываем сам чат
+        chatItems.clear(); // Очищаем ListView
+        Slot cleared = new Slot(null, null); // Новые сообщения сохраняются только после удаления старой истории
+        unsaved.add(cleared);
+        clearing = clearing.thenRunAsync(chatBotLogic::clearHistory, // И сохраненную историю - не в потоке JavaFX
+                        task -> Thread.ofVirtual().name("clear-history").start(task))
+                .handle((result, error) -> {
+                    Platform.runLater(() -> { // Даже после ошибки: иначе новые сообщения не сохранятся
+                        cleared.skipped = true;
+                        saveReady();
+                    });
+                    return null;
+                });
         addWelcomeMessage(); // Добавляем приветствие
     }
 
     // Загружает историю сообщений
     private void loadHistory() {
-        chatBotLogic.loadHistoryFromFile(messageListView);
+        chatItems.addAll(chatBotLogic.loadHistory().toList());
+    }
+
+    // Подгружает страницу старых сообщений, когда пользователь долистал до начала
+    private void loadOlderHistory() {
+        if (loadingOlder || historyExhausted || messageListView.getItems() != chatItems) {
+            return; // Уже загружается, загружать нечего или показаны результаты поиска
+        }
+        loadingOlder = true;
+        Thread.ofVirtual().start(() -> { // Чтение с диска - не в потоке JavaFX
+            List<Message> older = chatBotLogic.loadOlderHistory().toList();
+            Platform.runLater(() -> {
+                loadingOlder = false;
+                if (older.isEmpty()) {
+                    historyExhausted = true;
+                    return;
+                }
+                chatItems.addAll(0, older);
+                if (messageListView.getItems() == chatItems) {
+                    messageListView.scrollTo(older.size()); // Оставляем на месте сообщение, которое было сверху
+                }
+            });
+        });
+    }
+
+    // Показывает результаты поиска вместо чата; пустой запрос возвращает чат
+    private void filterHistory(String query) {
+        if (query == null || query.isBlank()) {
+            messageListView.setItems(chatItems);
+            scrollToBottom();
+            return;
+        }
+        Thread.ofVirtual().start(() -> { // Чтение истории - не в потоке JavaFX
+            List<Message> found = new ArrayList<>(chatBotLogic.searchHistory(query, SEARCH_LIMIT).toList());
+            Collections.reverse(found); // В списке - по времени, как в чате
+            Platform.runLater(() -> {
+                if (query.equals(searchField.getText())) { // Запрос не успел смениться
+                    messageListView.setItems(FXCollections.observableArrayList(found));
+                    scrollToBottom();
+                }
+            });
+        });
     }
 
     // Прокручивает чат вниз
@@ -128,39 +286,12 @@ public class ChatController {
 
     // Завершает работу
     public void shutdown() {
-        chatBotLogic.saveHistoryToFile(); // Сохраняем историю
+        cancelPendingReplies(); // Прерываем медленные запросы
+        clearing.join(); // Удаление истории заканчивается до сохранения
+        unsaved.forEach(slot -> slot.skipped = true); // Ждать больше нечего: сохраняем все, что есть
+        saveReady();
+        chatBotLogic.saveHistoryToFile(); // Дописываем очередь и сворачиваем журнал в файл истории
+        chatBotLogic.close(); // Останавливаем фоновую запись
         primaryStage.close(); // Закрываем окно
     }
-
-    // Внутренний класс для отображения сообщений
-    private static class MessageCell extends ListCell<Message> {
-        // Обновляет содержимое ячейки
-        @Override
-        protected void updateItem(Message item, boolean empty) {
-            super.updateItem(item, empty);
-            if (empty || item == null) {
-                setGraphic(null); // Очищаем, если пусто
-            } else {
-                // Создаем элементы интерфейса для сообщения
-                Text time = new Text("[" + item.getTime() + "] ");
-                time.setStyle("-fx-fill: #666666; -fx-font-size: 10px;");
-
-                Text author = new Text(item.getAuthor() + ": ");
-                author.setStyle(item.isUser() ?
-                        "-fx-fill: #2b5278; -fx-font-weight: bold;" : // Стиль для пользователя
-                        "-fx-fill: #784e2b; -fx-font-weight: bold;"); // Стиль для бота
-
-                Text content = new Text(item.getText());
-                content.setStyle("-fx-fill: #333333;");
-
-                HBox container = new HBox(5); // Контейнер для элементов
-                container.setStyle(item.isUser() ?
-                        "-fx-background-color: #e3f2fd; -fx-background-radius: 5; -fx-padding: 5;" : // Фон для пользователя
-                        "-fx-background-color: #f5f5f5; -fx-background-radius: 5; -fx-padding: 5;"); // Фон для бота
-
-                container.getChildren().addAll(time, author, content);
-                setGraphic(container); // Устанавливаем контейнер в ячейку
-            }
-        }
-    }
 }
\ No newline at end of file
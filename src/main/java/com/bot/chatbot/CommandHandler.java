@@ -0,0 +1,77 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.regex.MatchResult;
+import java.util.stream.Stream;
+
+/**
+ * Обработчик команды бота - точка расширения (SPI). Реализации объявляются в module-info
+ * ({@code provides CommandHandler with ...}) и в META-INF/services для запуска без модулей,
+ * а описываются аннотацией {@link Command}: по ней строятся таблица команд и /help,
+ * не создавая сам обработчик. Обработчик создается при первом подходящем сообщении
+ * и один на всех пользователей, поэтому не хранит состояния сессии - оно приходит в {@link Context}.
+ *
+ * Чтобы добавить команду, достаточно нового класса с аннотацией и строки в module-info;
+ * ChatBotLogic при этом не меняется.
+ */
+public interface CommandHandler {
+    /**
+     * Описание команды
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Command {
+        /** Имя для метрик (command.<имя>) */
+        String name();
+
+        /** Точные команды (без учета регистра) */
+        String[] exact() default {};
+
+        /** Шаблон команды с параметрами (сообщение должно совпасть целиком); пусто - нет */
+        String pattern() default "";
+
+        /** Символы, с которых может начинаться сообщение, подходящее под шаблон */
+        String firstChars() default "";
+
+        /** От чего зависит ответ (можно ли его кэшировать) */
+        CommandRouter.Kind kind() default CommandRouter.Kind.VOLATILE;
+
+        /** Чем может надолго заблокировать поток (сеть, диск) */
+        CommandRouter.Blocking blocking() default CommandRouter.Blocking.NONE;
+
+        /** Порядок проверки шаблонов и строк в /help (меньше - раньше) */
+        int order() default 100;
+
+        /** Раздел /help */
+        String section();
+
+        /** Строки /help ("команда - описание") */
+        String[] help();
+    }
+
+    /**
+     * Сессия, в которой выполняется команда
+     */
+    interface Context {
+        // Имя пользователя
+        String userName();
+
+        // Снимок курсов валют, по которому строится ответ (тот же, что в ключе кэша ответов)
+        CurrencyRateCache.Snapshot rates() throws IOException;
+
+        // Поиск по истории пользователя (новые сверху)
+        Stream<Message> searchHistory(String query, int limit);
+    }
+
+    /**
+     * @param context сессия пользователя (null, если маршрутизатор вызван без сессии)
+     * @param message исходное сообщение
+     * @param match результат сопоставления с шаблоном (null для точных команд)
+     * @return ответ бота
+     */
+    String handle(Context context, String message, MatchResult match);
+}
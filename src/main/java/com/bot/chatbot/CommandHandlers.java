@@ -0,0 +1,143 @@
+package com.bot.chatbot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.regex.MatchResult;
+
+/**
+ * Команды бота, найденные через {@link ServiceLoader}. Таблица команд и текст /help строятся
+ * один раз на процесс, при первом обращении, по аннотациям {@link CommandHandler.Command}:
+ * классы обработчиков при этом загружаются, но не создаются. Обработчик создается при первом
+ * подходящем сообщении и дальше обслуживает всех пользователей, поэтому создание сессии
+ * не зависит от числа команд.
+ */
+public final class CommandHandlers {
+    private static final String UNKNOWN = "Не понимаю. Напишите /help для списка команд.";
+
+    private CommandHandlers() {
+    }
+
+    /**
+     * Найденные команды (ленивая инициализация через класс-держатель)
+     */
+    private static final class Registry {
+        static final List<Registration> COMMANDS = discover();
+        static final CommandRouter ROUTER = createRouter(COMMANDS);
+        static final String HELP = buildHelp(COMMANDS);
+    }
+
+    /**
+     * Найденный обработчик и его описание
+     */
+    private record Registration(CommandHandler.Command command, ServiceLoader.Provider<CommandHandler> provider) {
+    }
+
+    // Общий маршрутизатор команд (вызывать route с сессией пользователя)
+    public static CommandRouter router() {
+        return Registry.ROUTER;
+    }
+
+    // Текст /help по описаниям команд
+    public static String help() {
+        return Registry.HELP;
+    }
+
+    // Имена найденных команд в порядке проверки
+    public static List<String> names() {
+        return Registry.COMMANDS.stream().map(registration -> registration.command.name()).toList();
+    }
+
+    // Ищет обработчики; класс без аннотации пропускается с предупреждением
+    private static List<Registration> discover() {
+        List<Registration> commands = new ArrayList<>();
+        ServiceLoader.load(CommandHandler.class, CommandHandler.class.getClassLoader()).stream().forEach(provider -> {
+            CommandHandler.Command command = provider.type().getAnnotation(CommandHandler.Command.class);
+            if (command == null) {
+                System.err.println("Обработчик " + provider.type().getName() + " без аннотации @Command пропущен");
+            } else {
+                commands.add(new Registration(command, provider));
+            }
+        });
+        commands.sort(Comparator.comparingInt(registration -> registration.command.order()));
+        return commands;
+    }
+
+    // Регистрирует команды в порядке order: шаблоны проверяются в этом же порядке
+    private static CommandRouter createRouter(List<Registration> commands) {
+        CommandRouter router = new CommandRouter(timed("unknown", (context, message, match) -> UNKNOWN)); // Ответ по умолчанию
+        for (Registration registration : commands) {
+            router.register(registration.command, timed(registration.command.name(), new LazyHandler(registration.provider)));
+        }
+        return router;
+    }
+
+    // Разделы в порядке первой команды раздела, строки - в порядке команд
+    private static String buildHelp(List<Registration> commands) {
+        Map<String, List<String>> sections = new LinkedHashMap<>();
+        for (Registration registration : commands) {
+            List<String> lines = sections.computeIfAbsent(registration.command.section(), section -> new ArrayList<>());
+            lines.addAll(List.of(registration.command.help()));
+        }
+        StringBuilder sb = new StringBuilder("📋 Доступные команды:\n");
+        sections.forEach((section, lines) -> {
+            sb.append('\n').append(section).append(":\n");
+            for (String line : lines) {
+                sb.append("• ").append(line).append('\n');
+            }
+        });
+        return sb.append("\nДля выхода закройте окно чата.").toString();
+    }
+
+    // Замеряет время обработчика команды; без метрик возвращает обработчик как есть
+    private static CommandHandler timed(String command, CommandHandler handler) {
+        if (!BotMetrics.ENABLED) {
+            return handler;
+        }
+        Histogram histogram = BotMetrics.histogram("command." + command);
+        return (context, message, match) -> {
+            long start = System.nanoTime();
+            try {
+                return handler.handle(context, message, match);
+            } finally {
+                histogram.recordSince(start);
+            }
+        };
+    }
+
+    /**
+     * Создает обработчик при первом вызове; дальше - один экземпляр на процесс
+     */
+    private static final class LazyHandler implements CommandHandler {
+        private final ServiceLoader.Provider<CommandHandler> provider;
+        private volatile CommandHandler instance;
+
+        LazyHandler(ServiceLoader.Provider<CommandHandler> provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public String handle(Context context, String message, MatchResult match) {
+            CommandHandler handler = instance;
+            if (handler == null) {
+                synchronized (this) {
+                    handler = instance;
+                    if (handler == null) {
+                        try {
+                            handler = provider.get();
+                        } catch (ServiceConfigurationError e) {
+                            System.err.println("Не удалось создать обработчик " + provider.type().getName() + ": " + e.getMessage());
+                            return UNKNOWN; // Следующее сообщение попробует снова
+                        }
+                        instance = handler;
+                    }
+                }
+            }
+            return handler.handle(context, message, match);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.bot.chatbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Маршрутизатор команд бота.
+ * Точные команды ищутся в хэш-таблице без учета регистра (без создания строк),
+ * команды с параметрами - по заранее скомпилированным шаблонам, которые проверяются
+ * только если первый символ сообщения может начинать такую команду. Сопоставитель ({@link Matcher})
+ * у каждого шаблона свой на поток и переиспользуется, поэтому неподошедшие шаблоны ничего не создают,
+ * а подошедший - только снимок результата (его можно передать в другой поток).
+ * Все команды регистрируются до первого вызова route().
+ * Команды, которые могут надолго заблокировать поток (сеть), отмечаются при регистрации,
+ * как и вид ответа ({@link Kind}) - по нему решается, можно ли ответ кэшировать.
+ * Сообщение сопоставляется с командами один раз ({@link #resolve}): результат несет и обработчик,
+ * и вид ответа, и признак блокировки.
+ * Обработчики {@link CommandHandler} получают сессию при каждом вызове, поэтому один
+ * маршрутизатор может обслуживать всех пользователей.
+ */
+public class CommandRouter {
+    /**
+     * От чего зависит ответ обработчика
+     */
+    public enum Kind {
+        /** Только от текста сообщения - одинаков для всех пользователей */
+        PURE,
+        /** От текста сообщения и имени пользователя */
+        USER,
+        /** От текста сообщения и текущего снимка курсов валют */
+        SNAPSHOT,
+        /** От времени, истории и т.п. - не кэшируется */
+        VOLATILE
+    }
+
+    /**
+     * Чем обработчик может надолго занять поток
+     */
+    public enum Blocking {
+        /** Ничем - отвечает сразу */
+        NONE,
+        /** Сетью: только пока кэш курсов пуст, дальше отвечает из памяти */
+        NETWORK,
+        /** Чтением истории с диска - всегда, поэтому выполняется вне вызывающего потока */
+        DISK
+    }
+
+    /**
+     * Команда, найденная для сообщения
+     * @param handler обработчик
+     * @param kind вид ответа
+     * @param blocking чем команда может блокировать поток
+     * @param result результат сопоставления с шаблоном (null для точных команд)
+     */
+    public record Match(CommandHandler handler, Kind kind, Blocking blocking, MatchResult result) {
+        // Ответ обработчика в сессии context
+        public String handle(CommandHandler.Context context, String message) {
+            return handler.handle(context, message, result);
+        }
+    }
+
+    private static final PatternRoute[] NO_ROUTES = new PatternRoute[0];
+
+    private String[] keys = new String[16]; // Точные команды (открытая адресация)
+    private Match[] matches = new Match[16]; // Готовый результат для каждой точной команды
+    private int exactCount;
+
+    private final PatternRoute[][] byFirstChar = new PatternRoute[128][]; // Шаблоны по первому ASCII-символу
+    private PatternRoute[] nonAscii = NO_ROUTES; // Шаблоны, начинающиеся с не-ASCII символа
+    private final Match fallback; // Ответ, если ничего не подошло (не кэшируется)
+
+    public CommandRouter(CommandHandler fallback) {
+        this.fallback = new Match(fallback, Kind.VOLATILE, Blocking.NONE, null);
+        Arrays.fill(byFirstChar, NO_ROUTES);
+    }
+
+    /**
+     * Регистрирует обработчик по его описанию: точные команды и шаблон
+     * @param command описание (аннотация класса обработчика)
+     * @param handler обработчик (может создавать настоящий обработчик при первом вызове)
+     */
+    public CommandRouter register(CommandHandler.Command command, CommandHandler handler) {
+        for (String exact : command.exact()) {
+            register(exact, command.kind(), command.blocking(), handler);
+        }
+        if (!command.pattern().isEmpty()) {
+            register(Pattern.compile(command.pattern()), command.firstChars(), command.kind(), command.blocking(), handler);
+        }
+        return this;
+    }
+
+    // Регистрирует точную команду (регистр не учитывается)
+    CommandRouter register(String command, Kind kind, Blocking blocking, CommandHandler handler) {
+        if ((exactCount + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = find(keys, command);
+        if (keys[slot] == null) {
+            exactCount++;
+        }
+        keys[slot] = command;
+        matches[slot] = new Match(handler, kind, blocking, null);
+        return this;
+    }
+
+    /**
+     * Регистрирует команду с параметрами
+     * @param pattern скомпилированный шаблон (сообщение должно совпасть целиком)
+     * @param firstChars символы, с которых может начинаться подходящее сообщение
+     * @param kind вид ответа
+     * @param blocking чем команда может блокировать поток
+     * @param handler обработчик
+     */
+    CommandRouter register(Pattern pattern, String firstChars, Kind kind, Blocking blocking, CommandHandler handler) {
+        PatternRoute route = new PatternRoute(pattern, handler, blocking, kind);
+        boolean hasNonAscii = false;
+        for (int i = 0; i < firstChars.length(); i++) {
+            char c = firstChars.charAt(i);
+            if (c < 128) {
+                byFirstChar[c] = append(byFirstChar[c], route);
+            } else {
+                hasNonAscii = true;
+            }
+        }
+        if (hasNonAscii) {
+            nonAscii = append(nonAscii, route);
+        }
+        return this;
+    }
+
+    // Находит обработчик и возвращает ответ
+    public String route(String message) {
+        return route(message, null);
+    }
+
+    // Находит обработчик и возвращает его ответ в сессии context
+    public String route(String message, CommandHandler.Context context) {
+        return resolve(message).handle(context, message);
+    }
+
+    /**
+     * Находит команду, которая обработает сообщение
+     * @return найденная команда или ответ по умолчанию (не null)
+     */
+    public Match resolve(String message) {
+        int slot = find(keys, message);
+        if (keys[slot] != null) {
+            return matches[slot];
+        }
+        if (!message.isEmpty()) {
+            char first = message.charAt(0);
+            for (PatternRoute route : first < 128 ? byFirstChar[first] : nonAscii) {
+                MatchResult result = route.match(message);
+                if (result != null) {
+                    return new Match(route.handler, route.kind, route.blocking, result);
+                }
+            }
+        }
+        return fallback;
+    }
+
+    // Слот для ключа: совпадающий или первый пустой
+    private static int find(String[] table, String key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (table[slot] != null && !sameCommand(table[slot], key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Хэш без учета регистра, без промежуточной строки
+    private static int hash(String key) {
+        int h = 0;
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameCommand(String a, String b) {
+        return a.length() == b.length() && a.regionMatches(true, 0, b, 0, a.length());
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        Match[] oldMatches = matches;
+        keys = new String[capacity];
+        matches = new Match[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                matches[slot] = oldMatches[i];
+            }
+        }
+    }
+
+    private static PatternRoute[] append(PatternRoute[] routes, PatternRoute route) {
+        List<PatternRoute> list = new ArrayList<>(Arrays.asList(routes));
+        list.add(route);
+        return list.toArray(NO_ROUTES);
+    }
+
+    // Команда с параметрами
+    private static final class PatternRoute {
+        private final CommandHandler handler;
+        private final Blocking blocking;
+        private final Kind kind;
+        private final ThreadLocal<Matcher> matchers; // Сопоставитель потока (переиспользуется через reset)
+
+        PatternRoute(Pattern pattern, CommandHandler handler, Blocking blocking, Kind kind) {
+            this.handler = handler;
+            this.blocking = blocking;
+            this.kind = kind;
+            this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+        }
+
+        // Снимок совпадения с сообщением целиком или null; сопоставитель потока остается для следующего сообщения
+        MatchResult match(String message) {
+            Matcher matcher = matchers.get().reset(message);
+            return matcher.matches() ? matcher.toMatchResult() : null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.bot.chatbot;
+
+/**
+ * Матрица кросс-курсов всех валют снимка.
+ * Строится один раз на снимок курсов; валюты адресуются id из {@link RateTable},
+ * поэтому конвертация - чтение одного элемента массива и одно умножение.
+ */
+public final class CrossRateMatrix {
+    private final RateTable rates; // Таблица, по которой построена матрица
+    private final int size; // Количество валют
+    private final double[] factors; // factors[from * size + to] - сколько to дают за 1 from
+
+    public CrossRateMatrix(RateTable rates) {
+        this.rates = rates;
+        this.size = rates.size();
+        this.factors = new double[size * size];
+        for (int from = 0; from < size; from++) {
+            double fromRate = rates.rate(from);
+            for (int to = 0; to < size; to++) {
+                double toRate = rates.rate(to);
+                // Курсы даны к базовой валюте: 1 база = rate единиц валюты
+                factors[from * size + to] = fromRate > 0 && toRate > 0 ? toRate / fromRate : Double.NaN;
+            }
+        }
+    }
+
+    // id валюты или -1
+    public int idOf(String code) {
+        return rates.idOf(code);
+    }
+
+    // Кросс-курс по id валют (NaN, если курс неизвестен)
+    public double factor(int from, int to) {
+        return factors[from * size + to];
+    }
+
+    // Переводит сумму из одной валюты в другую (NaN, если курс неизвестен)
+    public double convert(double amount, int from, int to) {
+        return amount * factors[from * size + to];
+    }
+}
@@ -0,0 +1,259 @@
+package com.bot.chatbot;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Кэш курсов валют.
+ * Снимок курсов живет заданное время (TTL); устаревший снимок отдается сразу, а обновление
+ * идет в фоне. Одновременные запросы разделяют один запрос к API. Последний полученный снимок
+ * хранится на диске, чтобы бот отвечал сразу после запуска и без сети.
+ *
+ * Настройки: chatbot.currency.url, chatbot.currency.apiKey, chatbot.currency.ttlMs,
+ * chatbot.currency.timeoutMs, chatbot.currency.snapshotFile
+ */
+public class CurrencyRateCache {
+    private static final String DEFAULT_URL = "https://api.exchangerate-api.com/v4/latest/USD"; // API курсов валют
+
+    private static volatile CurrencyRateCache shared; // Общий кэш для всех пользователей
+
+    /**
+     * Снимок курсов
+     * @param json ответ API
+     * @param rates курсы, разобранные из ответа один раз
+     * @param crossRates матрица кросс-курсов, построенная по rates
+     * @param fetchedAt время получения (мс от эпохи)
+     */
+    public record Snapshot(String json, RateTable rates, CrossRateMatrix crossRates, long fetchedAt) {
+        static Snapshot of(String json, long fetchedAt) throws IOException {
+            RateTable rates = RateTable.parse(json);
+            return new Snapshot(json, rates, new CrossRateMatrix(rates), fetchedAt);
+        }
+    }
+
+    private final String url; // Адрес API
+    private final long ttlMillis; // Время жизни снимка
+    private final int timeoutMillis; // Таймауты подключения и чтения
+    private final Path snapshotFile; // Снимок на диске (null - не сохранять)
+    private final ScheduledExecutorService scheduler; // Фоновые запросы и плановое обновление
+    private final AtomicReference<CompletableFuture<Snapshot>> inFlight = new AtomicReference<>(); // Текущий запрос
+
+    private volatile Snapshot current; // Последний снимок
+    private volatile long lastAccess; // Время последнего обращения
+    private volatile boolean diskChecked; // Снимок с диска уже прочитан
+    private volatile boolean refreshScheduled; // Плановое обновление запущено
+
+    public CurrencyRateCache(String url, long ttlMillis, int timeoutMillis, Path snapshotFile) {
+        this.url = url;
+        this.ttlMillis = ttlMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.snapshotFile = snapshotFile;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "currency-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Общий кэш с настройками из системных свойств
+    public static CurrencyRateCache shared() {
+        CurrencyRateCache cache = shared;
+        if (cache == null) {
+            synchronized (CurrencyRateCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    String apiKey = BotConfig.getString("currency.apiKey", "");
+                    String url = BotConfig.getString("currency.url", DEFAULT_URL)
+                            + (apiKey.isEmpty() ? "" : "?apikey=" + apiKey);
+                    cache = new CurrencyRateCache(url,
+                            BotConfig.getLong("currency.ttlMs", TimeUnit.MINUTES.toMillis(10)),
+                            (int) BotConfig.getLong("currency.timeoutMs", 5000),
+                            Paths.get(BotConfig.getString("currency.snapshotFile", "currency_rates.json")));
+                    shared = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Возвращает снимок курсов. Ждет сеть только если снимка нет ни в памяти, ни на диске
+     * @throws IOException если курсы получить не удалось
+     */
+    public Snapshot get() throws IOException {
+        lastAccess = System.currentTimeMillis();
+        startScheduledRefresh();
+        Snapshot snapshot = current;
+        if (snapshot == null && !diskChecked) {
+            snapshot = loadFromDisk();
+        }
+        if (snapshot != null) {
+            if (isStale(snapshot)) {
+                refresh(); // Отдаем устаревший снимок, обновляем в фоне
+            }
+            BotMetrics.cacheHit();
+            return snapshot;
+        }
+        BotMetrics.cacheMiss();
+        try {
+            return refresh().get(2L * timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Истекло время ожидания курсов валют");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ожидание курсов валют прервано");
+        }
+    }
+
+    // Есть ли снимок в памяти (ответ по курсам не потребует ожидания сети)
+    public boolean isWarm() {
+        return current != null;
+    }
+
+    // Запускает обновление; если оно уже идет - возвращает текущий запрос
+    public CompletableFuture<Snapshot> refresh() {
+        CompletableFuture<Snapshot> running = inFlight.get();
+        if (running != null) {
+            return running;
+        }
+        CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+        if (!inFlight.compareAndSet(null, mine)) {
+            CompletableFuture<Snapshot> other = inFlight.get();
+            return other != null ? other : refresh();
+        }
+        scheduler.execute(() -> {
+            long start = BotMetrics.start();
+            try {
+                Snapshot snapshot = Snapshot.of(fetch(), System.currentTimeMillis()); // Некорректный ответ не заменяет снимок
+                if (BotMetrics.ENABLED) {
+                    BotMetrics.CURRENCY_FETCH.recordSince(start);
+                }
+                current = snapshot;
+                saveToDisk(snapshot);
+                inFlight.set(null);
+                mine.complete(snapshot);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ошибка при получении курса валют: " + e.getMessage());
+                BotMetrics.apiFailure();
+                inFlight.set(null);
+                mine.completeExceptionally(e);
+            }
+        });
+        return mine;
+    }
+
+    // Снимок старше TTL
+    private boolean isStale(Snapshot snapshot) {
+        return System.currentTimeMillis() - snapshot.fetchedAt() >= ttlMillis;
+    }
+
+    // Плановое обновление незадолго до истечения TTL, пока курсами пользуются
+    private void startScheduledRefresh() {
+        if (refreshScheduled) {
+            return;
+        }
+        synchronized (this) {
+            if (refreshScheduled) {
+                return;
+            }
+            refreshScheduled = true;
+            long period = Math.max(1000, ttlMillis / 2);
+            scheduler.scheduleWithFixedDelay(() -> {
+                Snapshot snapshot = current;
+                long now = System.currentTimeMillis();
+                boolean used = now - lastAccess < ttlMillis;
+                boolean expiring = snapshot == null || now - snapshot.fetchedAt() >= ttlMillis - period;
+                if (used && expiring) {
+                    refresh().exceptionally(e -> null);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Получает данные о курсах валют от API
+    private String fetch() throws IOException {
+        URLConnection connection;
+        try {
+            connection = URI.create(url).toURL().openConnection();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Некорректный адрес API курсов: " + url, e);
+        }
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        try {
+            if (connection instanceof HttpURLConnection http && http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("API курсов вернуло код " + http.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            if (connection instanceof HttpURLConnection http) {
+                http.disconnect(); // Закрываем соединение
+            }
+        }
+    }
+
+    // Читает последний известный снимок с диска (первая строка - время получения)
+    private synchronized Snapshot loadFromDisk() {
+        if (diskChecked) {
+            return current;
+        }
+        diskChecked = true;
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || header.isBlank()) {
+                return null; // Пустой файл (запись оборвалась) - снимка нет
+            }
+            long fetchedAt = Long.parseLong(header.trim());
+            StringBuilder json = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                json.append(line);
+            }
+            if (json.isEmpty()) {
+                return null; // Только время, без курсов
+            }
+            if (current == null) {
+                current = Snapshot.of(json.toString(), fetchedAt);
+            }
+            return current;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Не удалось прочитать сохраненные курсы: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Сохраняет снимок на диск (через временный файл)
+    private void saveToDisk(Snapshot snapshot) {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            Files.writeString(tmp, snapshot.fetchedAt() + "\n" + snapshot.json(), StandardCharsets.UTF_8);
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Не удалось сохранить курсы: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Одноразовый перевод всех файлов истории в текущий двоичный формат и в подкаталоги
+ * {@link UserDirectory}: файлы history_<имя>.* из корня переносятся в подкаталог пользователя,
+ * а сам пользователь с размером истории и временем последнего изменения попадает в индекс.
+ * Запускать при остановленном приложении (работающее переносит своих пользователей само, при входе).
+ * Запуск: java -cp chat-bot.jar com.bot.chatbot.HistoryMigrator [директория]
+ */
+public class HistoryMigrator {
+    private static final String PREFIX = "history_";
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : UserDirectory.DEFAULT_ROOT);
+        if (!Files.isDirectory(directory)) {
+            System.err.println("Директория не найдена: " + directory);
+            return;
+        }
+
+        UserDirectory users = new UserDirectory(directory);
+        long totalBefore = 0, totalAfter = 0;
+        int migrated = 0, failed = 0;
+        for (String userName : users.legacyUsers()) {
+            Path file = directory.resolve(PREFIX + userName + ".dat");
+            try {
+                long start = System.nanoTime();
+                long before = Files.exists(file) ? Files.size(file) : 0;
+                long lastModified = Files.getLastModifiedTime(Files.exists(file) ? file
+                        : directory.resolve(PREFIX + userName + ".journal")).toMillis();
+                String name = UserDirectory.normalize(userName); // Настройки хранения - по имени в форме NFC
+                HistoryStore.RetentionPolicy policy = HistoryStore.RetentionPolicy.forUser(name);
+                new HistoryStore(directory, userName, policy).checkpoint(); // Читает любой формат, пишет текущий
+                int moved = users.migrate(userName);
+
+                HistoryStore store = HistoryStore.withFileStem(users.directoryOf(name), UserDirectory.fileStem(name), policy);
+                users.index().touch(name, lastModified);
+                users.index().recordSize(name, store.readPage(-1, 0).total());
+                long after = Files.size(store.getSnapshotFile());
+                System.out.printf("%s -> %s: %d -> %d байт, файлов: %d (%.1f мс)%n", userName,
+                        directory.relativize(store.getSnapshotFile()), before, after, moved, (System.nanoTime() - start) / 1e6);
+                totalBefore += before;
+                totalAfter += after;
+                migrated++;
+            } catch (IOException e) {
+                System.err.println(userName + ": ошибка миграции - " + e.getMessage());
+                failed++;
+            }
+        }
+        users.saveIndex();
+        System.out.printf("Готово: %d пользователей, %d ошибок, %d -> %d байт; в индексе пользователей: %d%n",
+                migrated, failed, totalBefore, totalAfter, users.index().size());
+    }
+}
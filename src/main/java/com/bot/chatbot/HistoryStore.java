@@ -0,0 +1,769 @@
+package com.bot.chatbot;
+
+import java.io.*;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Хранилище истории пользователя: снимок <имя>.dat и журнал дозаписи <имя>.journal, где <имя> -
+ * history_<user> в плоском каталоге или безопасное имя в подкаталоге (см. {@link UserDirectory}).
+ * Каждое новое сообщение дописывается в журнал одной записью, а снимок
+ * переписывается только при уплотнении (в фоне) или явной контрольной точке.
+ *
+ * Снимок хранит только активную часть истории: при уплотнении старые сообщения целыми сегментами
+ * по {@link RetentionPolicy#segmentMessages()} уходят в сжатые архивы <имя>.<номер>.seg.gz,
+ * где номер - позиция первого сообщения сегмента во всей истории. Архивы читаются так же, как снимок,
+ * поэтому страницы, поиск и полная загрузка видят всю историю. Сегменты, вышедшие за политику
+ * хранения, удаляются тем же фоновым уплотнением; номера сообщений при этом не меняются.
+ * Формат файлов описан в {@link MessageCodec}.
+ *
+ * Файлы одного пользователя могут открывать несколько экземпляров приложения и утилиты.
+ * Запись (дозапись журнала, уплотнение, очистка) идет под блокировкой файла <имя>.lock;
+ * получив ее, писатель проверяет, не менял ли журнал кто-то другой, и при необходимости перечитывает его.
+ * Чтение не блокируется: снимок и архивы заменяются целиком переименованием, журнал только дописывается,
+ * а его заголовок хранит номер первого сообщения - так читатель узнает журнал, уже свернутый в снимок,
+ * и перечитывает файлы, если снимок сменился у него на глазах.
+ */
+public class HistoryStore {
+    /**
+     * Страница истории
+     * @param messages сообщения страницы по порядку
+     * @param firstIndex номер первого сообщения страницы во всей истории
+     * @param total всего сообщений в истории
+     */
+    public record Page(List<Message> messages, int firstIndex, int total) {
+    }
+
+    /**
+     * Политика хранения истории пользователя.
+     * Задается свойствами chatbot.history.segmentMessages, chatbot.history.maxMessages и
+     * chatbot.history.maxAgeMs; chatbot.history.<имя>.maxMessages и т.п. переопределяют их для одного пользователя.
+     * @param segmentMessages сообщений в архивном сегменте (0 - не архивировать)
+     * @param maxMessages сколько последних сообщений хранить не меньше (0 - без ограничения)
+     * @param maxAgeMs сколько хранить архивный сегмент после архивации (0 - без ограничения)
+     */
+    public record RetentionPolicy(int segmentMessages, int maxMessages, long maxAgeMs) {
+        // Политика для пользователя из настроек
+        public static RetentionPolicy forUser(String userName) {
+            return new RetentionPolicy(
+                    (int) setting(userName, "segmentMessages", 10_000),
+                    (int) setting(userName, "maxMessages", 0),
+                    setting(userName, "maxAgeMs", 0));
+        }
+
+        private static long setting(String userName, String name, long defaultValue) {
+            return BotConfig.getLong("history." + userName + "." + name, BotConfig.getLong("history." + name, defaultValue));
+        }
+    }
+
+    private static final String SEGMENT_SUFFIX = ".seg.gz"; // Окончание имени архивного сегмента
+    private static final int COMPACT_THRESHOLD = 256; // Записей в журнале до фонового уплотнения
+    private static final int READ_ATTEMPTS = 5; // Попыток чтения, если файлы меняются во время чтения
+
+    // Блокировки записи внутри процесса по файлу блокировки (файловую блокировку процесс берет один раз).
+    // Ссылки слабые: блокировка живет, пока есть хранилище этого файла, затем запись удаляется из карты
+    private static final Map<Path, LockReference> WRITE_LOCKS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<ReentrantLock> RELEASED_LOCKS = new ReferenceQueue<>(); // Собранные блокировки
+
+    // Общий фоновый поток уплотнения для всех пользователей
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory; // Каталог файлов истории
+    private final String segmentPrefix; // Начало имени архивного сегмента
+    private final Path snapshotFile; // Файл снимка
+    private final Path journalFile; // Файл журнала
+    private final Path lockFile; // Файл блокировки записи
+    private final RetentionPolicy policy; // Политика хранения
+    private final ReentrantLock writeLock; // Общая для всех хранилищ этого пользователя в процессе
+    private final MessageCodec.AuthorTable journalAuthors = new MessageCodec.AuthorTable(); // Авторы журнала
+
+    // Состояние писателя (под writeLock)
+    private FileChannel journalChannel; // Канал журнала (для fsync)
+    private OutputStream journal; // Открытый поток журнала (открывается лениво)
+    private long journalLength; // Длина журнала после нашей последней записи
+    private Object journalKey; // Идентификатор файла открытого журнала (null, если ОС его не дает)
+    private boolean journalScanned; // Журнал прочитан и таблица авторов актуальна
+    private int journalRecords; // Количество записей в журнале
+    private boolean compactionScheduled; // Уплотнение уже поставлено в очередь
+    private int activeBase; // Номер первого сообщения снимка (обновляется при чтении снимка)
+
+    private volatile CachedSegment cachedSegment; // Последний распакованный сегмент
+
+    private record CachedSegment(int start, List<Message> messages) {
+    }
+
+    // Изменение файлов под блокировкой записи
+    private interface WriteAction<T> {
+        T run() throws IOException;
+    }
+
+    // Чтение из согласованного вида истории
+    private interface ViewAction<T> {
+        T read(View view) throws IOException;
+    }
+
+    /**
+     * Файлы изменились во время чтения (другой процесс свернул журнал в снимок) - чтение повторяется
+     */
+    private static final class ConcurrentChangeException extends IOException {
+        private static final long serialVersionUID = 1L; // Для сериализации
+
+        ConcurrentChangeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Слабая ссылка на блокировку записи с ключом в WRITE_LOCKS
+     */
+    private static final class LockReference extends WeakReference<ReentrantLock> {
+        private final Path file; // Ключ в карте
+
+        LockReference(Path file, ReentrantLock lock) {
+            super(lock, RELEASED_LOCKS);
+            this.file = file;
+        }
+    }
+
+    // Хранилище с файлами плоского вида history_<user>.* в directory (см. {@link UserDirectory})
+    public HistoryStore(Path directory, String userName) {
+        this(directory, userName, RetentionPolicy.forUser(userName));
+    }
+
+    public HistoryStore(Path directory, String userName, RetentionPolicy policy) {
+        this(policy, directory, "history_" + userName + ".");
+    }
+
+    private HistoryStore(RetentionPolicy policy, Path directory, String filePrefix) {
+        this.directory = directory;
+        this.segmentPrefix = filePrefix;
+        this.snapshotFile = directory.resolve(filePrefix + "dat");
+        this.journalFile = directory.resolve(filePrefix + "journal");
+        this.lockFile = directory.resolve(filePrefix + "lock");
+        this.policy = policy;
+        this.writeLock = writeLockFor(lockFile.toAbsolutePath().normalize());
+    }
+
+    // Общая блокировка записи файла; заодно удаляет из карты блокировки, которые больше никто не держит
+    private static ReentrantLock writeLockFor(Path file) {
+        for (Reference<? extends ReentrantLock> released; (released = RELEASED_LOCKS.poll()) != null; ) {
+            LockReference reference = (LockReference) released;
+            WRITE_LOCKS.remove(reference.file, reference);
+        }
+        while (true) {
+            LockReference current = WRITE_LOCKS.get(file);
+            ReentrantLock lock = current == null ? null : current.get();
+            if (lock != null) {
+                return lock;
+            }
+            ReentrantLock created = new ReentrantLock();
+            LockReference reference = new LockReference(file, created);
+            if (current == null ? WRITE_LOCKS.putIfAbsent(file, reference) == null : WRITE_LOCKS.replace(file, current, reference)) {
+                return created;
+            } // Другой поток успел создать блокировку - берем его
+        }
+    }
+
+    // Хранилище с файлами <fileStem>.dat, <fileStem>.journal и т.д. в directory
+    public static HistoryStore withFileStem(Path directory, String fileStem, RetentionPolicy policy) {
+        return new HistoryStore(policy, directory, fileStem + ".");
+    }
+
+    // Файл снимка
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    // Файл пользователя с тем же именем и другим расширением (например, "idx" - индекс поиска)
+    public Path getFile(String extension) {
+        return directory.resolve(segmentPrefix + extension);
+    }
+
+    // Загружает всю хранимую историю: архивы, снимок, затем журнал. Снимок старого формата переписывается в текущий
+    public List<Message> load() throws IOException {
+        return withView(view -> {
+            List<Message> history = new ArrayList<>(view.total() - view.first());
+            view.read(view.first(), view.total(), history);
+            return history;
+        });
+    }
+
+    /**
+     * Читает до limit сообщений, идущих перед позицией before, по индексу снимка и архивам
+     * @param before номер сообщения, перед которым заканчивается страница (отрицательный - конец истории)
+     */
+    public Page readPage(int before, int limit) throws IOException {
+        return withView(view -> {
+            int total = view.total();
+            int end = before < 0 || before > total ? total : Math.max(before, view.first());
+            int start = Math.max(view.first(), end - limit);
+            List<Message> messages = new ArrayList<>(end - start);
+            view.read(start, end, messages);
+            return new Page(messages, start, total);
+        });
+    }
+
+    // Читает сообщения с заданными номерами (в том же порядке); удаленные по политике пропускаются
+    public List<Message> readAt(int[] positions) throws IOException {
+        return withView(view -> {
+            List<Message> messages = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                if (position >= view.first() && position < view.total()) {
+                    view.read(position, position + 1, messages);
+                }
+            }
+            return messages;
+        });
+    }
+
+    // Удаляет всю историю; номера новых сообщений продолжают прежние
+    public void clear() throws IOException {
+        locked(() -> {
+            List<Message> active = new ArrayList<>();
+            readSnapshot(active);
+            scanJournal(active);
+            rewrite(List.of(), activeBase + active.size());
+            for (int start : segmentStarts()) {
+                deleteSegment(start);
+            }
+            return null;
+        });
+    }
+
+    // Читает без блокировки; если файлы сменились во время чтения, открывает их заново
+    private <T> T withView(ViewAction<T> action) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try (View view = openView()) {
+                return action.read(view);
+            } catch (ConcurrentChangeException | NoSuchFileException e) { // Архив удален уплотнением
+                if (attempt == READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Открывает снимок с индексом, журнал и список архивов для чтения по номерам
+    private View openView() throws IOException {
+        Object version = fileVersion(snapshotFile);
+        MessageCodec.IndexedSnapshot snapshot = openIndexedSnapshot();
+        try {
+            int[] segments = segmentStarts();
+            int base = snapshot != null ? snapshot.base() : segmentsEnd(segments);
+            List<Message> journalMessages = readJournal(base + (snapshot != null ? snapshot.count() : 0));
+            if (!Objects.equals(version, fileVersion(snapshotFile))) {
+                // Журнал мог быть уже свернут в новый снимок и удален
+                throw new ConcurrentChangeException("Снимок истории сменился во время чтения: " + snapshotFile);
+            }
+            int retained = 0;
+            while (retained < segments.length && segments[retained] < base) {
+                retained++; // Сегменты с большими номерами - остатки прерванной архивации
+            }
+            return new View(snapshot, journalMessages, base, Arrays.copyOf(segments, retained));
+        } catch (IOException | RuntimeException e) {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+            throw e;
+        }
+    }
+
+    // Версия файла: идентификатор, время изменения и размер (null, если файла нет)
+    private static Object fileVersion(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return Arrays.asList(attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Открывает снимок с индексом; снимок старого формата сначала переписывается
+    private MessageCodec.IndexedSnapshot openIndexedSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return null;
+        }
+        MessageCodec.IndexedSnapshot snapshot = MessageCodec.IndexedSnapshot.open(snapshotFile);
+        if (snapshot == null) {
+            upgrade();
+            snapshot = MessageCodec.IndexedSnapshot.open(snapshotFile);
+        }
+        return snapshot;
+    }
+
+    // Переводит снимок и журнал старого формата в текущий (один раз)
+    private void upgrade() throws IOException {
+        locked(() -> {
+            List<Message> active = new ArrayList<>();
+            boolean outdated = readSnapshot(active);
+            outdated |= scanJournal(active);
+            if (outdated) {
+                rewrite(active, activeBase);
+            }
+            return null;
+        });
+    }
+
+    // Дописывает одно сообщение в журнал
+    public void append(Message message) throws IOException {
+        appendAll(List.of(message));
+    }
+
+    /**
+     * Дописывает пачку сообщений одной записью в файл (без fsync). Если запись не удалась,
+     * журнал возвращается к длине до пачки, а таблица авторов и словарь будут перечитаны с диска:
+     * в них не должно остаться авторов и текстов из незаписанных кадров
+     */
+    public void appendAll(List<Message> messages) throws IOException {
+        locked(() -> {
+            openJournal();
+            long start = journalLength;
+            long written = 0;
+            try {
+                for (Message message : messages) {
+                    byte[] frame = MessageCodec.frame(MessageCodec.encodeJournalRecord(message, journalAuthors));
+                    journal.write(frame);
+                    written += frame.length;
+                }
+                journal.flush();
+            } catch (IOException | RuntimeException e) {
+                discardBatch(start);
+                throw e;
+            }
+            journalLength += written;
+            BotMetrics.historyWritten(written);
+
+            journalRecords += messages.size();
+            if (journalRecords >= COMPACT_THRESHOLD && !compactionScheduled) {
+                compactionScheduled = true;
+                COMPACTOR.execute(this::compactQuietly);
+            }
+            return null;
+        });
+    }
+
+    // Отменяет недописанную пачку: обрезает журнал до ее начала и сбрасывает таблицу авторов
+    private void discardBatch(long length) {
+        journalScanned = false; // Таблица авторов и словарь будут прочитаны из журнала заново
+        try {
+            closeJournal();
+        } catch (IOException e) {
+            // Канал уже закрыт ошибкой записи; часть пачки могла остаться в файле
+        }
+        try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "rw")) {
+            if (file.length() > length) {
+                file.setLength(length);
+            }
+        } catch (IOException e) {
+            // Не удалось обрезать: целые кадры пачки останутся в журнале, оборванный хвост отрежет scanJournal
+            System.err.println("Не удалось отменить запись в журнал " + journalFile + ": " + e.getMessage());
+        }
+    }
+
+    // Сбрасывает журнал на диск (fsync); файловая блокировка не нужна - записи уже в файле
+    public void sync() throws IOException {
+        writeLock.lock();
+        try {
+            if (journal != null) {
+                journal.flush();
+                journalChannel.force(false);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Контрольная точка: сворачивает журнал в снимок синхронно, переносит старые сообщения
+     * в архивные сегменты (в снимке остается от одного до двух сегментов) и применяет политику хранения
+     * @return записано байт (снимок и новые сегменты)
+     */
+    public long checkpoint() throws IOException {
+        return locked(() -> {
+            List<Message> history = new ArrayList<>();
+            readSnapshot(history);
+            scanJournal(history);
+            int base = activeBase;
+            for (int start : segmentStarts()) {
+                if (start >= base) {
+                    deleteSegment(start); // Остатки архивации, прерванной до записи снимка
+                }
+            }
+
+            int segment = policy.segmentMessages();
+            int rolled = segment > 0 && history.size() >= 2 * segment ? (history.size() / segment - 1) * segment : 0;
+            long written = 0;
+            for (int from = 0; from < rolled; from += segment) {
+                written += writeSegment(base + from, history.subList(from, from + segment));
+            }
+            written += rewrite(history.subList(rolled, history.size()), base + rolled);
+            applyRetention(base + history.size());
+            return written;
+        });
+    }
+
+    /**
+     * Выполняет изменение файлов под блокировкой записи: сначала внутри процесса, затем файловой,
+     * чтобы писатели разных процессов шли по очереди. Вложенные вызовы файл повторно не блокируют
+     */
+    private <T> T locked(WriteAction<T> action) throws IOException {
+        writeLock.lock();
+        try {
+            if (writeLock.getHoldCount() > 1) {
+                return action.run();
+            }
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.lock(); // Снимается при закрытии канала
+                refreshJournal();
+                return action.run();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Если журнал после нашей записи менял кто-то другой (или свернул в снимок), он будет перечитан при открытии
+    private void refreshJournal() throws IOException {
+        if (journal == null || !journalUnchanged()) {
+            closeJournal();
+            journalScanned = false;
+        }
+    }
+
+    private boolean journalUnchanged() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(journalFile, BasicFileAttributes.class);
+            return attributes.size() == journalLength && Objects.equals(attributes.fileKey(), journalKey);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    // Удаляет старые сегменты, целиком вышедшие за политику хранения (активная часть не удаляется)
+    private void applyRetention(int total) throws IOException {
+        int[] segments = segmentStarts();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < segments.length; i++) {
+            int end = i + 1 < segments.length ? segments[i + 1] : activeBase;
+            boolean tooMany = policy.maxMessages() > 0 && total - end >= policy.maxMessages();
+            boolean tooOld = policy.maxAgeMs() > 0
+                    && now - Files.getLastModifiedTime(segmentFile(segments[i])).toMillis() > policy.maxAgeMs();
+            if (!tooMany && !tooOld) {
+                break; // Дальше сегменты новее
+            }
+            deleteSegment(segments[i]);
+        }
+    }
+
+    // Фоновое уплотнение
+    private void compactQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Ошибка уплотнения истории: " + e.getMessage());
+            writeLock.lock();
+            try {
+                compactionScheduled = false; // Повторим через COMPACT_THRESHOLD записей
+                journalRecords = 0;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // Открывает журнал для дозаписи, при необходимости восстанавливая таблицу авторов
+    private void openJournal() throws IOException {
+        if (journal != null) {
+            return;
+        }
+        if (!journalScanned && scanJournal(new ArrayList<>())) {
+            checkpoint(); // Журнал старого формата сначала сворачиваем в снимок
+        }
+        journalChannel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journal = new BufferedOutputStream(Channels.newOutputStream(journalChannel), 64 * 1024);
+        journalLength = journalChannel.size();
+        journalKey = Files.readAttributes(journalFile, BasicFileAttributes.class).fileKey();
+        if (journalLength == 0) {
+            byte[] header = MessageCodec.journalHeader(activeEnd());
+            journal.write(header);
+            journalLength = header.length;
+        }
+    }
+
+    // Номер сообщения, следующего за снимком (с него начинается журнал)
+    private int activeEnd() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return segmentsEnd(segmentStarts());
+        }
+        try (MessageCodec.IndexedSnapshot snapshot = MessageCodec.IndexedSnapshot.open(snapshotFile)) {
+            if (snapshot != null) {
+                return snapshot.base() + snapshot.count();
+            }
+        }
+        List<Message> history = new ArrayList<>();
+        readSnapshot(history); // Старый формат - без индекса
+        return activeBase + history.size();
+    }
+
+    // Переписывает снимок целиком и очищает журнал; возвращает размер снимка
+    private long rewrite(List<Message> history, int base) throws IOException {
+        closeJournal();
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        long size;
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             BufferedOutputStream out = new BufferedOutputStream(fos, 64 * 1024)) {
+            MessageCodec.writeSnapshot(out, history, base);
+            out.flush();
+            fos.getFD().sync(); // Снимок должен попасть на диск до удаления журнала
+            size = fos.getChannel().position();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalFile);
+        activeBase = base;
+        journalAuthors.clear();
+        journalScanned = true;
+        journalRecords = 0;
+        compactionScheduled = false;
+        BotMetrics.historyWritten(size);
+        return size;
+    }
+
+    // Читает снимок и номер его первого сообщения; возвращает true, если файл записан в старом формате
+    private boolean readSnapshot(List<Message> history) throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            activeBase = segmentsEnd(segmentStarts());
+            return false;
+        }
+        try {
+            byte[] data = Files.readAllBytes(snapshotFile);
+            activeBase = MessageCodec.snapshotBase(data);
+            return MessageCodec.readSnapshot(data, history) != MessageCodec.VERSION;
+        } catch (EOFException e) {
+            throw new IOException("Файл истории поврежден: " + snapshotFile, e);
+        }
+    }
+
+    // Номера первых сообщений архивных сегментов по возрастанию
+    private int[] segmentStarts() throws IOException {
+        List<Integer> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, file -> {
+            String name = file.getFileName().toString();
+            return name.startsWith(segmentPrefix) && name.endsWith(SEGMENT_SUFFIX);
+        })) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String number = name.substring(segmentPrefix.length(), name.length() - SEGMENT_SUFFIX.length());
+                if (!number.isEmpty() && number.chars().allMatch(Character::isDigit)) {
+                    starts.add(Integer.parseInt(number));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new int[0];
+        }
+        return starts.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    // Номер сообщения, следующего за последним сегментом (если снимка нет)
+    private int segmentsEnd(int[] segments) throws IOException {
+        if (segments.length == 0) {
+            return 0;
+        }
+        int last = segments[segments.length - 1];
+        return last + readSegment(last).size();
+    }
+
+    private Path segmentFile(int start) {
+        return directory.resolve(segmentPrefix + start + SEGMENT_SUFFIX);
+    }
+
+    // Записывает сегмент в сжатый архив (через временный файл); возвращает размер архива
+    private long writeSegment(int start, List<Message> messages) throws IOException {
+        Path file = segmentFile(start);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            MessageCodec.writeSnapshot(gzip, messages, start);
+            gzip.finish();
+            gzip.flush();
+            fos.getFD().sync(); // Архив должен попасть на диск до того, как сообщения уйдут из снимка
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        long size = Files.size(file);
+        BotMetrics.historyWritten(size);
+        return size;
+    }
+
+    // Читает сегмент (последний прочитанный кэшируется - страницы обычно идут подряд)
+    private List<Message> readSegment(int start) throws IOException {
+        CachedSegment cached = cachedSegment;
+        if (cached == null || cached.start() != start) {
+            List<Message> messages = new ArrayList<>();
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(segmentFile(start)), 64 * 1024)) {
+                MessageCodec.readSnapshot(in.readAllBytes(), messages);
+            } catch (EOFException e) {
+                throw new IOException("Архив истории поврежден: " + segmentFile(start), e);
+            }
+            cached = new CachedSegment(start, messages);
+            cachedSegment = cached;
+        }
+        return cached.messages();
+    }
+
+    private void deleteSegment(int start) throws IOException {
+        Files.deleteIfExists(segmentFile(start));
+        CachedSegment cached = cachedSegment;
+        if (cached != null && cached.start() == start) {
+            cachedSegment = null;
+        }
+    }
+
+    /**
+     * Читает журнал без блокировки и не меняя файл: недописанная другим писателем запись просто не читается
+     * @param snapshotEnd номер сообщения, следующего за открытым снимком
+     */
+    private List<Message> readJournal(int snapshotEnd) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(journalFile);
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+        int journalBase = MessageCodec.journalBase(data);
+        if (journalBase > snapshotEnd) {
+            throw new ConcurrentChangeException("Снимок истории сменился во время чтения: " + snapshotFile);
+        }
+        if (journalBase >= 0 && journalBase < snapshotEnd) {
+            return List.of(); // Журнал уже свернут в снимок, но еще не удален
+        }
+        List<Message> messages = new ArrayList<>();
+        MessageCodec.readJournal(data, new MessageCodec.AuthorTable(), messages);
+        return messages;
+    }
+
+    /**
+     * Читает журнал писателем (под блокировкой записи) и восстанавливает таблицу авторов: оборванный хвост
+     * отрезается, журнал, уже свернутый в снимок прерванной контрольной точкой, удаляется
+     * @return true для журнала старого формата
+     */
+    private boolean scanJournal(List<Message> history) throws IOException {
+        closeJournal();
+        journalAuthors.clear();
+        journalScanned = true;
+        journalRecords = 0;
+        if (!Files.exists(journalFile)) {
+            return false;
+        }
+        byte[] data = Files.readAllBytes(journalFile);
+        int journalBase = MessageCodec.journalBase(data);
+        if (journalBase >= 0 && journalBase < activeEnd()) {
+            Files.delete(journalFile); // Его сообщения уже в снимке
+            return false;
+        }
+        int before = history.size();
+        int validEnd = MessageCodec.readJournal(data, journalAuthors, history);
+        journalRecords = history.size() - before;
+        if (validEnd < data.length) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "rw")) {
+                file.setLength(validEnd); // Обрезаем хвост, чтобы новые записи шли за целыми
+            }
+        }
+        return validEnd > 0 && !MessageCodec.isCurrentJournal(data);
+    }
+
+    // Закрывает поток журнала
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            try {
+                journal.close(); // Закрывает и канал
+            } finally {
+                journal = null;
+                journalChannel = null;
+            }
+        }
+    }
+
+    /**
+     * Вся хранимая история для чтения по номерам: архивы, снимок и журнал
+     */
+    private final class View implements Closeable {
+        private final MessageCodec.IndexedSnapshot snapshot; // Может быть null
+        private final List<Message> journalMessages;
+        private final int base; // Номер первого сообщения снимка
+        private final int[] segments; // Номера первых сообщений архивов до base
+
+        View(MessageCodec.IndexedSnapshot snapshot, List<Message> journalMessages, int base, int[] segments) {
+            this.snapshot = snapshot;
+            this.journalMessages = journalMessages;
+            this.base = base;
+            this.segments = segments;
+        }
+
+        // Номер самого старого хранимого сообщения
+        int first() {
+            return segments.length > 0 ? segments[0] : base;
+        }
+
+        // Всего сообщений, включая удаленные по политике
+        int total() {
+            return base + snapshotCount() + journalMessages.size();
+        }
+
+        private int snapshotCount() {
+            return snapshot == null ? 0 : snapshot.count();
+        }
+
+        // Добавляет сообщения с номерами [from, to) из архивов, снимка и журнала
+        void read(int from, int to, List<Message> messages) throws IOException {
+            for (int i = 0; i < segments.length && from < Math.min(to, base); i++) {
+                int end = i + 1 < segments.length ? segments[i + 1] : base;
+                if (from >= end) {
+                    continue;
+                }
+                List<Message> segment = readSegment(segments[i]);
+                int upTo = Math.min(to, end);
+                messages.addAll(segment.subList(from - segments[i], Math.min(upTo - segments[i], segment.size())));
+                from = upTo;
+            }
+            int snapshotEnd = base + snapshotCount();
+            if (from < to && from < snapshotEnd) {
+                snapshot.read(Math.max(from, base) - base, Math.min(to, snapshotEnd) - base, messages);
+            }
+            for (int i = Math.max(from, snapshotEnd); i < to; i++) {
+                messages.add(journalMessages.get(i - snapshotEnd));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+}
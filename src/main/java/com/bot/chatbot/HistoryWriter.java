@@ -0,0 +1,229 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отложенная запись истории в фоновом потоке.
+ * Сообщения копятся в ограниченной очереди; все, что накопилось за время предыдущей записи,
+ * пишется в журнал одной пачкой и сбрасывается на диск одним fsync (групповая фиксация).
+ * Пачка, которую не удалось записать, не теряется: она повторяется вместе со следующими сообщениями,
+ * а flush() до успешной записи завершается ошибкой.
+ */
+public class HistoryWriter implements AutoCloseable {
+    /**
+     * Когда журнал сбрасывается на диск (fsync)
+     */
+    public enum Durability {
+        PER_MESSAGE, // После каждой записанной пачки
+        INTERVAL, // Не чаще, чем раз в заданный интервал
+        ON_SHUTDOWN; // Только при flush() и закрытии
+
+        // Читает режим из настроек (chatbot.history.durability)
+        public static Durability fromConfig() {
+            String value = BotConfig.getString("history.durability", INTERVAL.name());
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Неизвестный режим записи истории: " + value);
+                return INTERVAL;
+            }
+        }
+    }
+
+    private static final int BATCH_LIMIT = 512; // Максимум сообщений в одной пачке
+    private static final long RETRY_DELAY_MS = 1000; // Пауза перед повтором неудачной записи
+    private static final Entry STOP = new Entry(null, null); // Сигнал завершения
+
+    private final HistoryStore store; // Куда пишем
+    private final Durability durability; // Режим сброса на диск
+    private final long syncIntervalNanos; // Интервал fsync для режима INTERVAL
+    private final int capacity; // Размер очереди
+    private volatile BlockingQueue<Entry> queue; // Очередь на запись (создается вместе с потоком)
+    private Thread thread; // Фоновый поток записи (запускается при первой записи)
+
+    private volatile boolean closed; // Запись завершена, новые сообщения не принимаются
+    private boolean dirty; // Есть записанные, но не сброшенные на диск данные
+    private final List<Message> pending = new ArrayList<>(); // Еще не записанные сообщения (только в потоке записи)
+    private long lastSync; // Время последнего fsync
+
+    // Запись с настройками по умолчанию (chatbot.history.*)
+    public HistoryWriter(HistoryStore store) {
+        this(store, Durability.fromConfig(),
+                BotConfig.getLong("history.syncIntervalMs", 1000),
+                (int) BotConfig.getLong("history.queueCapacity", 4096));
+    }
+
+    public HistoryWriter(HistoryStore store, Durability durability, long syncIntervalMs, int capacity) {
+        this.store = store;
+        this.durability = durability;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        this.capacity = capacity;
+        this.lastSync = System.nanoTime();
+    }
+
+    // Очередь записи; поток и очередь создаются при первом сообщении (ботам, которые только отвечают, они не нужны)
+    private synchronized BlockingQueue<Entry> started() {
+        if (closed) {
+            throw new IllegalStateException("Запись истории уже завершена");
+        }
+        if (queue == null) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = Thread.ofVirtual().name("history-writer").start(this::run);
+        }
+        return queue;
+    }
+
+    // Ставит сообщение в очередь; при переполненной очереди ждет освобождения места.
+    // Проверка и постановка - под той же блокировкой, что и close(): сообщение не окажется за STOP
+    public synchronized void submit(Message message) {
+        if (closed) {
+            throw new IllegalStateException("Запись истории уже завершена");
+        }
+        put(new Entry(message, null));
+    }
+
+    // Дожидается записи и fsync всего, что было поставлено в очередь до вызова
+    public void flush() throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed || queue == null) {
+                return; // Нечего дописывать
+            }
+            put(new Entry(null, done));
+        }
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    // Дописывает очередь до конца и останавливает поток
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (queue == null) {
+                return; // Поток не запускался
+            }
+        }
+        put(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Entry entry : queue) { // flush(), вызванный одновременно с close()
+            if (entry.done() != null) {
+                entry.done().complete(null);
+            }
+        }
+    }
+
+    private void put(Entry entry) {
+        BlockingQueue<Entry> target = queue;
+        try {
+            (target != null ? target : started()).put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прервано ожидание очереди записи истории", e);
+        }
+    }
+
+    // Цикл фонового потока
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            batch.clear();
+            try {
+                Entry first = awaitNext();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, Math.max(0, BATCH_LIMIT - 1 - pending.size())); // Всё, что накопилось, - в одну пачку
+                }
+            } catch (InterruptedException e) {
+                running = false; // Поток прерван: дописываем то, что успели забрать
+            }
+
+            boolean barrier = false;
+            for (Entry entry : batch) {
+                if (entry.message() != null) {
+                    pending.add(entry.message());
+                } else {
+                    barrier = true;
+                    running &= entry != STOP;
+                }
+            }
+
+            IOException error = null;
+            try {
+                if (!pending.isEmpty()) {
+                    store.appendAll(pending); // Вместе с пачкой, которую не удалось записать раньше
+                    pending.clear();
+                    dirty = true;
+                }
+                if (dirty && (barrier || !running || shouldSync())) {
+                    store.sync();
+                    dirty = false;
+                    lastSync = System.nanoTime();
+                }
+            } catch (IOException e) {
+                error = e;
+                if (running) {
+                    System.err.println("Ошибка записи истории, повтор через " + RETRY_DELAY_MS + " мс: " + e.getMessage());
+                } else {
+                    System.err.println("Ошибка записи истории при закрытии, потеряно сообщений: " + pending.size()
+                            + ": " + e.getMessage());
+                    pending.clear();
+                }
+            }
+
+            for (Entry entry : batch) {
+                if (entry.done() != null) {
+                    if (error == null) {
+                        entry.done().complete(null);
+                    } else {
+                        entry.done().completeExceptionally(error);
+                    }
+                }
+            }
+        }
+    }
+
+    // Ждет следующую запись; при неудачной записи - не дольше паузы перед повтором,
+    // в режиме INTERVAL - не дольше, чем до следующего fsync
+    private Entry awaitNext() throws InterruptedException {
+        if (!pending.isEmpty()) {
+            return queue.poll(RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        if (durability == Durability.INTERVAL && dirty) {
+            long wait = syncIntervalNanos - (System.nanoTime() - lastSync);
+            return wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+        }
+        return queue.take();
+    }
+
+    private boolean shouldSync() {
+        return switch (durability) {
+            case PER_MESSAGE -> true;
+            case INTERVAL -> System.nanoTime() - lastSync >= syncIntervalNanos;
+            case ON_SHUTDOWN -> false;
+        };
+    }
+
+    // Элемент очереди: сообщение или отметка ожидания (flush/close)
+    private record Entry(Message message, CompletableFuture<Void> done) {
+    }
+}
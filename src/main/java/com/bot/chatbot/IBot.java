@@ -1,10 +1,13 @@
 package com.bot.chatbot;
 //IBOT - задает стандарт для всех возможных реализаций чат-бота
 
-import javafx.scene.control.ListView;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Stream;
 
 /**
- * Интерфейс для функциональности чат-бота
+ * Интерфейс для функциональности чат-бота.
+ * Не зависит от JavaFX: реализация работает в обычной JVM (сервер, пакетная обработка),
+ * а окно чата лишь показывает то, что она возвращает
  */
 public interface IBot {
     /**
@@ -14,6 +17,14 @@ public interface IBot {
      */
     String getResponse(String message);
 
+    /**
+     * Генерирует ответ асинхронно. Быстрые команды возвращают уже завершенный результат,
+     * медленные выполняются в фоне с ограничением по времени; отмена результата прерывает запрос
+     * @param message входящее сообщение от пользователя
+     * @return будущий ответ бота
+     */
+    CompletionStage<String> getResponseAsync(String message);
+
     /**
      * Возвращает список доступных команд
      * @return строка с описанием команд
@@ -21,21 +32,46 @@ public interface IBot {
     String getHelpCommands();
 
     /**
-     * Сохраняет сообщение в историю чата
+     * Сохраняет сообщение в историю чата (дописывается в журнал на диске)
      * @param message объект сообщения для сохранения
      */
     void saveMessage(Message message);
 
     /**
-     * Загружает историю сообщений в UI
-     * @param messageListView ListView для отображения истории
+     * Загружает последнюю страницу истории сообщений.
+     * Если истории еще нет, создает и сохраняет приветственное сообщение
+     * @return сообщения по порядку, от старых к новым
+     */
+    Stream<Message> loadHistory();
+
+    /**
+     * Загружает страницу более старых сообщений (перед уже загруженными)
+     * @return сообщения по порядку; пустой поток, если загружена вся история
+     */
+    Stream<Message> loadOlderHistory();
+
+    /**
+     * Ищет сообщения в истории по словам (все слова должны встретиться; "слово*" - по началу слова)
+     * @param query поисковый запрос
+     * @param limit максимум результатов
+     * @return найденные сообщения, от новых к старым
+     */
+    Stream<Message> searchHistory(String query, int limit);
+
+    /**
+     * Удаляет всю сохраненную историю пользователя (вместе с архивами и индексом поиска)
      */
-    void loadHistoryFromFile(ListView<Message> messageListView);
+    void clearHistory();
 
     /**
-     * Сохраняет текущую историю сообщений в файл
+     * Сохраняет текущую историю сообщений в файл (сворачивает журнал в снимок)
      */
     void saveHistoryToFile();
+
+    /**
+     * Завершает работу: дожидается записи всех сообщений на диск
+     */
+    void close();
 }
 
 //Интерфейс в Java — это абстрактный тип, который:
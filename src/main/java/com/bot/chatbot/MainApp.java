@@ -1,22 +1,60 @@
 package com.bot.chatbot;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
-import javafx.scene.image.Image;
 import java.io.IOException;
-import java.net.URL;
+import java.lang.management.ManagementFactory;
 
 public class MainApp extends Application {
+    private static final boolean TRACE_STARTUP = BotConfig.getBoolean("startup.trace", false); // Печатать время запуска
+    private static final boolean TRAINING_RUN = BotConfig.getBoolean("startup.trainingRun", false); // Выйти после подготовки (для архива CDS)
+
     private Stage primaryStage; // Главное окно приложения
     private String userName; // Имя текущего пользователя
+    private StartupPreloader preloader; // Фоновая подготовка окна чата
+    private long loginNanos; // Момент входа (для замера готовности чата)
+
+    // Запускает фоновую подготовку до создания окна (инструментарий JavaFX уже запущен)
+    @Override
+    public void init() {
+        preloader = StartupPreloader.start();
+    }
 
     // Точка входа JavaFX приложения
     @Override
     public void start(Stage primaryStage) {
         this.primaryStage = primaryStage; // Сохраняем ссылку на главное окно
+        // Иконка появится, когда декодируется, не задерживая первый кадр
+        preloader.icon().thenAccept(icon -> {
+            if (icon != null) {
+                Platform.runLater(() -> primaryStage.getIcons().setAll(icon));
+            }
+        });
         showLoginWindow(); // Показываем окно входа
+        onFirstFrame(() -> {
+            if (TRACE_STARTUP) {
+                long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("Первый кадр через " + sinceJvmStart + " мс после запуска JVM");
+            }
+            if (TRAINING_RUN) {
+                preloader.whenDone().thenRun(() -> Platform.runLater(Platform::exit));
+            }
+        });
+    }
+
+    // Выполняет действие в первом кадре после показа окна
+    private static void onFirstFrame(Runnable action) {
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                action.run();
+            }
+        }.start();
     }
 
     // Показывает окно входа
@@ -29,12 +67,6 @@ public class MainApp extends Application {
             controller.setMainApp(this); // Передаем ссылку на MainApp в контроллер
 
             primaryStage.setTitle("Вход в чат-бот"); // Устанавливаем заголовок окна
-            // Загружаем иконку приложения
-            URL iconUrl = getClass().getResource("/image.png");
-            if (iconUrl != null) {
-                Image appIcon = new Image(iconUrl.toString());
-                primaryStage.getIcons().add(appIcon);
-            }
             primaryStage.setScene(scene); // Устанавливаем сцену
             primaryStage.setResizable(false); // Запрещаем изменение размера окна
             primaryStage.show(); // Показываем окно
@@ -46,32 +78,31 @@ public class MainApp extends Application {
     // Обрабатывает вход пользователя
     public void login(String userName) {
         this.userName = userName; // Сохраняем имя пользователя
+        loginNanos = System.nanoTime();
         showChatWindow(); // Показываем окно чата
     }
 
     // Показывает окно чата
     private void showChatWindow() {
         try {
-            // Загружаем FXML-файл с интерфейсом чата
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/bot/chatbot/Chat.fxml"));
-            Scene scene = new Scene(loader.load());
-            ChatController controller = loader.getController();
+            // Интерфейс чата разобран заранее, пока пользователь вводил имя
+            StartupPreloader.ChatView view = preloader != null ? preloader.takeChatView() : StartupPreloader.loadChatView();
+            Scene scene = new Scene(view.root());
+            ChatController controller = view.controller();
             // Настраиваем контроллер чата
             controller.setMainApp(this);
             controller.setPrimaryStage(primaryStage);
             controller.setUserName(userName);
             controller.initChat(); // Инициализируем чат
 
-            // Устанавливаем иконку (аналогично окну входа)
-            URL iconUrl = getClass().getResource("/image.png");
-            if (iconUrl != null) {
-                Image appIcon = new Image(iconUrl.toString());
-                primaryStage.getIcons().add(appIcon);
-            }
-
+            primaryStage.setOnCloseRequest(event -> controller.shutdown()); // Дописываем историю при закрытии
             primaryStage.setTitle("Чат с ботом - " + userName); // Обновляем заголовок
             primaryStage.setScene(scene); // Устанавливаем новую сцену
             primaryStage.show(); // Показываем окно
+            if (TRACE_STARTUP) {
+                onFirstFrame(() -> System.out.printf("Чат готов через %.0f мс после входа%n",
+                        (System.nanoTime() - loginNanos) / 1e6));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
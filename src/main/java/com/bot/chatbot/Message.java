@@ -1,40 +1,144 @@
 package com.bot.chatbot;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Objects;
 
+/**
+ * Сообщение чата. Хранит время в миллисекундах от эпохи, автора и текст; строка "HH:mm"
+ * получается только при отображении (общие строки, без форматтера). Имя автора - общая строка
+ * из таблицы авторов файла истории ({@link MessageCodec}), поэтому у сообщений одного файла оно не дублируется.
+ * Сообщения из старой истории, где было только время суток, хранят готовую строку времени.
+ * Весь объект - 40 байт (со сжатыми указателями), не считая текста.
+ */
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L; // Для сериализации
 
-    private String author; // Автор сообщения
-    private String text; // Текст сообщения
-    private String time; // Время сообщения
-    private boolean isUser; // Флаг (пользователь/бот)
+    // Поля в потоке сериализации - как у прежнего класса, поэтому старые файлы читаются
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("author", String.class),
+            new ObjectStreamField("text", String.class),
+            new ObjectStreamField("time", String.class),
+            new ObjectStreamField("isUser", boolean.class),
+            new ObjectStreamField("timestamp", long.class) // Нет в старых файлах
+    };
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE; // Дата неизвестна (старая история)
+
+    private static final ZoneId ZONE = ZoneId.systemDefault(); // Часовой пояс отображения
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final String[] TIME_STRINGS = new String[MINUTES_PER_DAY]; // Кэш строк "HH:mm"
+
+    private transient long timestamp; // Время, мс от эпохи (NO_TIMESTAMP - неизвестно)
+    private transient String author; // Автор сообщения
+    private transient boolean isUser; // Флаг (пользователь/бот)
+    private transient String text; // Текст сообщения
+    private transient String timeLabel; // Время строкой, если даты нет (иначе null)
 
     /**
      * Конструктор сообщения
-     * @param author - автор сообщения
+     * @param author - автор сообщения (не null)
      * @param text - текст сообщения
-     * @param time - время сообщения
+     * @param timestamp - время сообщения, мс от эпохи
      * @param isUser - флаг (пользователь/бот)
      */
-    public Message(String author, String text, String time, boolean isUser) {
-        this.author = author;
-        this.text = text;
-        this.time = time;
+    public Message(String author, String text, long timestamp, boolean isUser) {
+        this.author = Objects.requireNonNull(author, "author");
         this.isUser = isUser;
+        this.text = text;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Сообщение с временем строкой, без даты (из старой истории)
+     * @param time - время сообщения ("HH:mm" или произвольная строка)
+     */
+    public Message(String author, String text, String time, boolean isUser) {
+        this(author, text, NO_TIMESTAMP, isUser);
+        int minutes = parseMinutes(time);
+        this.timeLabel = minutes >= 0 ? timeOfDay(minutes) : time; // "HH:mm" - общая строка
     }
 
     // Геттеры
     public String getAuthor() { return author; }
     public String getText() { return text; }
-    public String getTime() { return time; }
     public boolean isUser() { return isUser; }
 
+    // Время, мс от эпохи; NO_TIMESTAMP, если известно только время суток
+    public long getTimestamp() { return timestamp; }
+
+    // Время для отображения "HH:mm" (в часовом поясе системы)
+    public String getTime() {
+        if (timeLabel != null || timestamp == NO_TIMESTAMP) {
+            return timeLabel;
+        }
+        long local = timestamp + ZONE.getRules().getOffset(Instant.ofEpochMilli(timestamp)).getTotalSeconds() * 1000L;
+        return timeOfDay((int) Math.floorMod(local / 60_000, (long) MINUTES_PER_DAY));
+    }
+
     // Строковое представление сообщения
     @Override
     public String toString() {
-        return "[" + time + "] " + author + ": " + text;
+        return "[" + getTime() + "] " + getAuthor() + ": " + text;
+    }
+
+    // "HH:mm" -> минуты от полуночи, или -1 если строка в другом формате
+    static int parseMinutes(String time) {
+        if (time == null || time.length() != 5 || time.charAt(2) != ':') {
+            return -1;
+        }
+        int h1 = time.charAt(0) - '0', h2 = time.charAt(1) - '0';
+        int m1 = time.charAt(3) - '0', m2 = time.charAt(4) - '0';
+        if ((h1 | h2 | m1 | m2) < 0 || h1 > 9 || h2 > 9 || m1 > 5 || m2 > 9) {
+            return -1;
+        }
+        int hours = h1 * 10 + h2;
+        return hours < 24 ? hours * 60 + m1 * 10 + m2 : -1;
+    }
+
+    // Минуты от полуночи (0..1439) -> общая строка "HH:mm"
+    static String timeOfDay(int minutes) {
+        String time = TIME_STRINGS[minutes];
+        if (time == null) {
+            int h = minutes / 60, m = minutes % 60;
+            time = new String(new char[]{(char) ('0' + h / 10), (char) ('0' + h % 10), ':',
+                    (char) ('0' + m / 10), (char) ('0' + m % 10)});
+            TIME_STRINGS[minutes] = time; // Гонка безопасна: строки неизменяемы и равны
+        }
+        return time;
+    }
+
+    // Пишет поля прежнего формата и время от эпохи
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("author", author);
+        fields.put("text", text);
+        fields.put("time", getTime());
+        fields.put("isUser", isUser);
+        fields.put("timestamp", timestamp);
+        out.writeFields();
+    }
+
+    // Читает сообщение как нового, так и прежнего формата
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        author = (String) fields.get("author", null);
+        if (author == null) {
+            throw new InvalidObjectException("Сообщение без автора");
+        }
+        isUser = fields.get("isUser", false);
+        text = (String) fields.get("text", null);
+        timestamp = fields.get("timestamp", NO_TIMESTAMP);
+        if (timestamp == NO_TIMESTAMP) {
+            String time = (String) fields.get("time", null);
+            int minutes = parseMinutes(time);
+            timeLabel = minutes >= 0 ? timeOfDay(minutes) : time;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.bot.chatbot;
+
+import javafx.css.PseudoClass;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.text.Text;
+
+/**
+ * Ячейка списка сообщений.
+ * Узлы создаются один раз на ячейку; при прокрутке меняется только текст,
+ * а вид пользователя/бота переключается псевдоклассом (стили в chat.css).
+ */
+public final class MessageCell extends ListCell<Message> {
+    private static final PseudoClass USER = PseudoClass.getPseudoClass("user"); // Сообщение пользователя
+    private static final PseudoClass BOT = PseudoClass.getPseudoClass("bot"); // Сообщение бота
+
+    private final Text time = new Text(); // Время
+    private final Text author = new Text(); // Автор
+    private final Text content = new Text(); // Текст сообщения
+    private final HBox container; // Контейнер для элементов
+    private final Runnable onTopReached; // Вызывается, когда показана первая строка списка
+
+    public MessageCell() {
+        this(null);
+    }
+
+    public MessageCell(Runnable onTopReached) {
+        this.onTopReached = onTopReached;
+        Text open = new Text("[");
+        Text close = new Text("] ");
+        Text separator = new Text(": ");
+        open.getStyleClass().add("message-time");
+        time.getStyleClass().add("message-time");
+        close.getStyleClass().add("message-time");
+        author.getStyleClass().add("message-author");
+        separator.getStyleClass().add("message-author");
+        content.getStyleClass().add("message-text");
+
+        HBox timeBox = new HBox(open, time, close); // "[HH:mm] " без склейки строк
+        HBox authorBox = new HBox(author, separator);
+        container = new HBox(5, timeBox, authorBox, content);
+        container.getStyleClass().add("message");
+        setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+    }
+
+    // Обновляет содержимое ячейки
+    @Override
+    protected void updateItem(Message item, boolean empty) {
+        super.updateItem(item, empty);
+        if (empty || item == null) {
+            setGraphic(null); // Очищаем, если пусто
+            return;
+        }
+        time.setText(item.getTime());
+        author.setText(item.getAuthor());
+        content.setText(item.getText());
+        container.pseudoClassStateChanged(USER, item.isUser());
+        container.pseudoClassStateChanged(BOT, !item.isUser());
+        if (getGraphic() != container) {
+            setGraphic(container); // Граф узлов один и тот же
+        }
+        if (getIndex() == 0 && onTopReached != null) {
+            onTopReached.run(); // Пора подгрузить более старые сообщения
+        }
+    }
+}
@@ -0,0 +1,766 @@
+package com.bot.chatbot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Компактный двоичный формат истории сообщений.
+ *
+ * Снимок: "CBH" + версия, номер первого сообщения во всей истории (с версии 4; до нее - 0),
+ * таблица авторов, словарь повторяющихся текстов (с версии 6), количество записей и записи
+ * с префиксом длины. Текст из словаря записывается ссылкой - номером в словаре.
+ * В конце снимка - индекс смещений записей и футер [начало индекса][количество]["CBHI"],
+ * чтобы страницу истории можно было прочитать, не разбирая файл целиком.
+ * Запись: id автора, флаги, время (мс от эпохи с версии 5; в старых записях - минуты от полуночи
+ * или строка) и текст. Все длины и числа - varint.
+ * Журнал: "CBJ" + версия, номер первого сообщения журнала во всей истории (с версии 5),
+ * далее кадры [varint длина][запись][CRC32]; новые авторы
+ * объявляются прямо в записи, которая впервые их использует. Так же (с версии 4) в словарь
+ * журнала попадают ответы бота: повторный ответ записывается ссылкой на первый.
+ * При чтении одинаковые тексты из словаря файла - один и тот же объект String
+ * (словарь принадлежит одному чтению, в общую таблицу строк JVM тексты не попадают).
+ */
+public final class MessageCodec {
+    public static final int VERSION = 6; // Текущая версия формата снимка
+    public static final int JOURNAL_VERSION = 5; // Текущая версия формата журнала
+    public static final int LEGACY_VERSION = 0; // ArrayList<Message> через ObjectOutputStream
+
+    private static final int SNAPSHOT_MAGIC = 0x434248; // "CBH"
+    private static final int JOURNAL_MAGIC = 0x43424A; // "CBJ"
+    private static final int INDEX_MAGIC = 0x43424849; // "CBHI" - конец снимка с индексом
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int FLAG_USER = 1; // Сообщение пользователя
+    private static final int FLAG_RAW_TIME = 2; // Время не в формате HH:mm и хранится строкой
+    private static final int FLAG_TIMESTAMP = 4; // Время - мс от эпохи (с версии снимка 5 и журнала 3)
+    private static final int FLAG_TEXT_REF = 8; // Вместо текста - номер в словаре (с версии снимка 6 и журнала 4)
+    private static final int FLAG_TEXT_NEW = 16; // Текст добавляется в словарь журнала
+    private static final int MIN_SHARED_TEXT = 16; // Более короткие тексты в словарь не попадают
+    private static final int MAX_JOURNAL_TEXTS = 4096; // Предел словаря журнала (дальше - текстом)
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private MessageCodec() {
+    }
+
+    // Записывает снимок истории в текущем формате
+    public static void writeSnapshot(OutputStream out, List<Message> history) throws IOException {
+        writeSnapshot(out, history, 0);
+    }
+
+    /**
+     * Записывает снимок части истории
+     * @param base номер первого сообщения снимка во всей истории
+     */
+    public static void writeSnapshot(OutputStream out, List<Message> history, int base) throws IOException {
+        AuthorTable authors = new AuthorTable(); // Авторы и словарь текстов идут перед записями
+        Map<String, Boolean> seen = new HashMap<>(); // Тексты, встреченные хотя бы раз
+        for (Message message : history) {
+            authors.idOf(message.getAuthor());
+            String text = message.getText();
+            if (text.length() >= MIN_SHARED_TEXT && seen.put(text, Boolean.TRUE) != null && authors.textId(text) < 0) {
+                authors.addText(text); // Второе появление - текст в словарь
+            }
+        }
+
+        Buffer buffer = new Buffer(256);
+        buffer.writeInt(SNAPSHOT_MAGIC << 8 | VERSION);
+        buffer.writeVarint(base);
+        buffer.writeVarint(authors.size());
+        for (int i = 0; i < authors.size(); i++) {
+            buffer.writeString(authors.name(i));
+        }
+        buffer.writeVarint(authors.textCount());
+        for (int i = 0; i < authors.textCount(); i++) {
+            buffer.writeString(authors.text(i));
+        }
+        buffer.writeVarint(history.size());
+        buffer.writeTo(out);
+        long position = buffer.size();
+
+        long[] offsets = new long[history.size()];
+        Buffer record = new Buffer(256);
+        for (int i = 0; i < offsets.length; i++) {
+            Message message = history.get(i);
+            offsets[i] = position;
+            record.reset();
+            writeRecord(record, message, authors.idOf(message.getAuthor()), authors.textId(message.getText()));
+            buffer.reset();
+            buffer.writeVarint(record.size());
+            buffer.writeTo(out);
+            record.writeTo(out);
+            position += buffer.size() + record.size();
+        }
+
+        // Индекс смещений и футер
+        DataOutputStream index = new DataOutputStream(out);
+        for (long offset : offsets) {
+            index.writeLong(offset);
+        }
+        index.writeLong(position);
+        index.writeInt(offsets.length);
+        index.writeInt(INDEX_MAGIC);
+        index.flush();
+    }
+
+    /**
+     * Читает снимок любой поддерживаемой версии
+     * @param data содержимое файла
+     * @param history список, в который добавляются сообщения
+     * @return версия формата файла
+     */
+    public static int readSnapshot(byte[] data, List<Message> history) throws IOException {
+        if (data.length >= 2 && (data[0] & 0xFF) == 0xAC && (data[1] & 0xFF) == 0xED) {
+            history.addAll(readLegacy(data));
+            return LEGACY_VERSION;
+        }
+        Reader in = new Reader(data, 0, data.length);
+        int header = in.readInt();
+        if (header >>> 8 != SNAPSHOT_MAGIC) {
+            throw new IOException("Неизвестный формат файла истории");
+        }
+        int version = header & 0xFF;
+        if (version == '1') {
+            readSnapshotV1(in, history);
+            return 1;
+        }
+        if (version < 2 || version > VERSION) {
+            throw new IOException("Неподдерживаемая версия файла истории: " + version);
+        }
+        if (version >= 4) {
+            in.readVarint(); // Номер первого сообщения - см. snapshotBase
+        }
+
+        String[] authors = new String[in.readVarint()];
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = in.readString();
+        }
+        AuthorTable texts = version >= 6 ? readTexts(in) : new AuthorTable();
+        int count = in.readVarint();
+        if (history instanceof ArrayList<Message> list) {
+            list.ensureCapacity(list.size() + count);
+        }
+        for (int i = 0; i < count; i++) {
+            int length = in.readVarint();
+            int end = in.pos + length;
+            int authorId = in.readVarint();
+            if (authorId < 0 || authorId >= authors.length) {
+                throw new IOException("Неизвестный автор в записи " + i);
+            }
+            history.add(readRecordBody(in, authors[authorId], texts));
+            in.pos = end; // Неизвестные поля будущих версий пропускаются
+        }
+        return version; // Индекс (с версии 3) при последовательном чтении не нужен
+    }
+
+    // Номер первого сообщения снимка во всей истории (0 для версий до 4)
+    public static int snapshotBase(byte[] data) throws IOException {
+        if (data.length < 4) {
+            return 0;
+        }
+        Reader in = new Reader(data, 0, data.length);
+        int header = in.readInt();
+        int version = header & 0xFF;
+        return header >>> 8 == SNAPSHOT_MAGIC && version >= 4 && version <= VERSION ? in.readVarint() : 0;
+    }
+
+    /**
+     * Заголовок нового журнала
+     * @param base номер первого сообщения журнала во всей истории (конец снимка, за которым идет журнал)
+     */
+    public static byte[] journalHeader(int base) {
+        Buffer buffer = new Buffer(9);
+        buffer.writeInt(JOURNAL_MAGIC << 8 | JOURNAL_VERSION);
+        buffer.writeVarint(base);
+        return buffer.toByteArray();
+    }
+
+    // Номер первого сообщения журнала во всей истории или -1, если журнал старой версии (или заголовок оборван)
+    public static int journalBase(byte[] data) {
+        if (journalVersion(data) < 5) {
+            return -1;
+        }
+        try {
+            return new Reader(data, 4, data.length).readVarint();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Кодирует одну запись журнала. Автор добавляется в таблицу, если встречен впервые;
+     * ответ бота, уже записанный в журнал, заменяется ссылкой, а новый - добавляется в словарь
+     */
+    public static byte[] encodeJournalRecord(Message message, AuthorTable authors) {
+        String text = message.getText();
+        int textId = authors.textId(text);
+        Buffer buffer = new Buffer(64 + (textId >= 0 ? 0 : text.length() * 3));
+        int known = authors.size();
+        int id = authors.idOf(message.getAuthor());
+        buffer.writeVarint(id);
+        if (id == known) {
+            buffer.writeString(message.getAuthor()); // Объявление нового автора
+        }
+        if (textId >= 0) {
+            writeFlagsTimeText(buffer, message, FLAG_TEXT_REF, textId);
+        } else if (!message.isUser() && text.length() >= MIN_SHARED_TEXT && authors.textCount() < MAX_JOURNAL_TEXTS) {
+            authors.addText(text);
+            writeFlagsTimeText(buffer, message, FLAG_TEXT_NEW, -1);
+        } else {
+            writeFlagsTimeText(buffer, message, 0, -1);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Читает журнал, останавливаясь на первой оборванной или поврежденной записи
+     * @param data содержимое файла журнала
+     * @param authors таблица авторов и словарь журнала (заполняются при чтении)
+     * @param history список, в который добавляются сообщения
+     * @return длина корректной части журнала в байтах
+     */
+    public static int readJournal(byte[] data, AuthorTable authors, List<Message> history) {
+        Reader in = new Reader(data, 0, data.length);
+        if (journalVersion(data) < 2) {
+            return readJournalV1(in, history);
+        }
+        in.pos = 4;
+        if (journalVersion(data) >= 5) {
+            try {
+                in.readVarint(); // Номер первого сообщения (см. journalBase)
+            } catch (IOException e) {
+                return 0; // Заголовок оборван
+            }
+        }
+        CRC32 crc = new CRC32();
+        int validEnd = in.pos;
+        try {
+            while (in.pos < data.length) {
+                int length = in.readVarint();
+                if (length < 0 || in.remaining() < length + Integer.BYTES) {
+                    break; // Запись не дописана до конца
+                }
+                crc.reset();
+                crc.update(data, in.pos, length);
+                int end = in.pos + length;
+                Reader record = new Reader(data, in.pos, end);
+                in.pos = end;
+                if (in.readInt() != (int) crc.getValue()) {
+                    break; // Запись повреждена
+                }
+                int authorId = record.readVarint();
+                if (authorId == authors.size()) {
+                    authors.idOf(record.readString());
+                } else if (authorId < 0 || authorId > authors.size()) {
+                    break; // Ссылка на необъявленного автора
+                }
+                history.add(readRecordBody(record, authors.name(authorId), authors));
+                validEnd = in.pos;
+            }
+        } catch (IOException e) {
+            // Обрыв внутри varint - хвост отбрасывается
+        }
+        return validEnd;
+    }
+
+    // Проверяет, записан ли журнал в текущем формате
+    public static boolean isCurrentJournal(byte[] data) {
+        return data.length >= 4 && new Reader(data, 0, 4).readIntUnchecked() == (JOURNAL_MAGIC << 8 | JOURNAL_VERSION);
+    }
+
+    // Версия журнала с заголовком (2..JOURNAL_VERSION: те же кадры) или 1, если заголовка нет
+    private static int journalVersion(byte[] data) {
+        int header = data.length >= 4 ? new Reader(data, 0, 4).readIntUnchecked() : 0;
+        int version = header & 0xFF;
+        return header >>> 8 == JOURNAL_MAGIC && version >= 2 && version <= JOURNAL_VERSION ? version : 1;
+    }
+
+    // Кадр журнала: длина, запись, контрольная сумма
+    public static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        Buffer buffer = new Buffer(payload.length + 9);
+        buffer.writeVarint(payload.length);
+        buffer.write(payload, 0, payload.length);
+        buffer.writeInt((int) crc.getValue());
+        return buffer.toByteArray();
+    }
+
+    // Запись снимка: id автора, флаги, время, текст или его номер в словаре (textId < 0 - текстом)
+    private static void writeRecord(Buffer buffer, Message message, int authorId, int textId) {
+        buffer.writeVarint(authorId);
+        writeFlagsTimeText(buffer, message, textId >= 0 ? FLAG_TEXT_REF : 0, textId);
+    }
+
+    private static void writeFlagsTimeText(Buffer buffer, Message message, int textFlags, int textId) {
+        int flags = (message.isUser() ? FLAG_USER : 0) | textFlags;
+        if (message.getTimestamp() != Message.NO_TIMESTAMP) {
+            buffer.writeByte(flags | FLAG_TIMESTAMP);
+            buffer.writeVarlong(message.getTimestamp());
+        } else {
+            int minutes = Message.parseMinutes(message.getTime());
+            buffer.writeByte(flags | (minutes < 0 ? FLAG_RAW_TIME : 0));
+            if (minutes < 0) {
+                buffer.writeString(message.getTime() == null ? "" : message.getTime());
+            } else {
+                buffer.writeVarint(minutes);
+            }
+        }
+        if ((textFlags & FLAG_TEXT_REF) != 0) {
+            buffer.writeVarint(textId);
+        } else {
+            buffer.writeString(message.getText());
+        }
+    }
+
+    private static Message readRecordBody(Reader in, String author, AuthorTable texts) throws IOException {
+        int flags = in.readByte();
+        boolean isUser = (flags & FLAG_USER) != 0;
+        if ((flags & FLAG_TIMESTAMP) != 0) {
+            long timestamp = in.readVarlong();
+            return new Message(author, readText(in, flags, texts), timestamp, isUser);
+        }
+        String time = (flags & FLAG_RAW_TIME) != 0 ? in.readString() : formatMinutes(in.readVarint());
+        return new Message(author, readText(in, flags, texts), time, isUser);
+    }
+
+    // Текст записи: строкой или из словаря
+    private static String readText(Reader in, int flags, AuthorTable texts) throws IOException {
+        if ((flags & FLAG_TEXT_REF) != 0) {
+            int id = in.readVarint();
+            if (id < 0 || id >= texts.textCount()) {
+                throw new IOException("Ссылка на текст вне словаря: " + id);
+            }
+            return texts.text(id);
+        }
+        String text = in.readString();
+        if ((flags & FLAG_TEXT_NEW) != 0) {
+            texts.addText(text); // Ссылки на него вернут этот же экземпляр
+        }
+        return text;
+    }
+
+    // Словарь текстов из заголовка снимка
+    private static AuthorTable readTexts(Reader in) throws IOException {
+        AuthorTable texts = new AuthorTable();
+        int count = in.readVarint();
+        for (int i = 0; i < count; i++) {
+            texts.addText(in.readString());
+        }
+        return texts;
+    }
+
+    // Минуты от полуночи -> общая строка "HH:mm"
+    static String formatMinutes(int minutes) throws IOException {
+        if (minutes < 0 || minutes >= MINUTES_PER_DAY) {
+            throw new IOException("Некорректное время в записи: " + minutes);
+        }
+        return Message.timeOfDay(minutes);
+    }
+
+    // Снимок версии 1: int количество, записи с int-длинами строк
+    private static void readSnapshotV1(Reader in, List<Message> history) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            history.add(readMessageV1(in));
+        }
+    }
+
+    // Журнал версии 1: кадры [int длина][запись][CRC32] без заголовка
+    private static int readJournalV1(Reader in, List<Message> history) {
+        CRC32 crc = new CRC32();
+        int validEnd = 0;
+        try {
+            while (in.remaining() >= Integer.BYTES) {
+                int length = in.readInt();
+                if (length < 0 || in.remaining() < length + Integer.BYTES) {
+                    break;
+                }
+                crc.reset();
+                crc.update(in.data, in.pos, length);
+                Reader record = new Reader(in.data, in.pos, in.pos + length);
+                in.pos += length;
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                history.add(readMessageV1(record));
+                validEnd = in.pos;
+            }
+        } catch (IOException e) {
+            // Поврежденная запись - хвост отбрасывается
+        }
+        return validEnd;
+    }
+
+    private static Message readMessageV1(Reader in) throws IOException {
+        String author = in.readFixedString();
+        String text = in.readFixedString();
+        String time = in.readFixedString();
+        return new Message(author, text, time, in.readByte() != 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Message> readLegacy(byte[] data) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (List<Message>) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Не удалось прочитать историю старого формата", e);
+        }
+    }
+
+    /**
+     * Снимок с индексом, открытый для чтения отдельных диапазонов записей.
+     * Файл отображается в память только для чтения (chatbot.history.mmap, по умолчанию - кроме Windows,
+     * где отображенный файл нельзя заменить до сборки мусора) и после этого не держит открытого файла.
+     * Снимок заменяется целиком переименованием, поэтому открытый экземпляр продолжает читать
+     * прежнюю версию, даже если другой процесс уже записал новую.
+     */
+    public static final class IndexedSnapshot implements Closeable {
+        private static final boolean MAP_FILES = BotConfig.getBoolean("history.mmap",
+                !System.getProperty("os.name", "").startsWith("Windows"));
+
+        private final FileChannel channel; // null, если файл отображен в память
+        private final ByteBuffer mapped; // Отображение файла (null - чтение через канал)
+        private final String[] authors; // Таблица авторов снимка
+        private final AuthorTable texts; // Словарь текстов снимка
+        private final int base; // Номер первого сообщения во всей истории
+        private final int count; // Количество записей
+        private final long indexStart; // Начало индекса смещений (и конец последней записи)
+
+        private IndexedSnapshot(FileChannel channel, ByteBuffer mapped, int base, String[] authors, AuthorTable texts,
+                                int count, long indexStart) {
+            this.channel = channel;
+            this.mapped = mapped;
+            this.base = base;
+            this.authors = authors;
+            this.texts = texts;
+            this.count = count;
+            this.indexStart = indexStart;
+        }
+
+        /**
+         * Открывает снимок текущей версии
+         * @return null, если файл в формате без индекса
+         */
+        public static IndexedSnapshot open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer mapped = null;
+            try {
+                long size = channel.size();
+                int magic = size < 4 + FOOTER_SIZE ? 0 : readBytes(channel, null, 0, 4).readInt();
+                if (magic >>> 8 != SNAPSHOT_MAGIC || (magic & 0xFF) < 4 || (magic & 0xFF) > VERSION) { // С версии 4 - с индексом
+                    channel.close();
+                    return null;
+                }
+                if (MAP_FILES && size <= Integer.MAX_VALUE) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    channel.close(); // Отображение остается действительным
+                    channel = null;
+                }
+                Reader footer = readBytes(channel, mapped, size - FOOTER_SIZE, FOOTER_SIZE);
+                long indexStart = footer.readLong();
+                int count = footer.readInt();
+                if (footer.readInt() != INDEX_MAGIC || indexStart + (long) count * Long.BYTES != size - FOOTER_SIZE) {
+                    throw new IOException("Поврежден индекс файла истории: " + file);
+                }
+                long headerEnd = count > 0 ? readBytes(channel, mapped, indexStart, Long.BYTES).readLong() : indexStart;
+                Reader header = readBytes(channel, mapped, 4, (int) (headerEnd - 4));
+                int base = header.readVarint();
+                String[] authors = new String[header.readVarint()];
+                for (int i = 0; i < authors.length; i++) {
+                    authors[i] = header.readString();
+                }
+                AuthorTable texts = (magic & 0xFF) >= 6 ? readTexts(header) : new AuthorTable();
+                return new IndexedSnapshot(channel, mapped, base, authors, texts, count, indexStart);
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) {
+                    channel.close();
+                }
+                throw e;
+            }
+        }
+
+        // Номер первого сообщения снимка во всей истории
+        public int base() {
+            return base;
+        }
+
+        // Количество записей в снимке
+        public int count() {
+            return count;
+        }
+
+        // Читает записи [from, to)
+        public void read(int from, int to, List<Message> history) throws IOException {
+            if (from < 0 || to > count || from > to) {
+                throw new IndexOutOfBoundsException("Диапазон " + from + ".." + to + " вне 0.." + count);
+            }
+            if (from == to) {
+                return;
+            }
+            long start = readBytes(channel, mapped, indexStart + (long) from * Long.BYTES, Long.BYTES).readLong();
+            long end = to < count ? readBytes(channel, mapped, indexStart + (long) to * Long.BYTES, Long.BYTES).readLong() : indexStart;
+            Reader in = readBytes(channel, mapped, start, (int) (end - start));
+            for (int i = from; i < to; i++) {
+                int length = in.readVarint();
+                int recordEnd = in.pos + length;
+                int authorId = in.readVarint();
+                if (authorId < 0 || authorId >= authors.length) {
+                    throw new IOException("Неизвестный автор в записи " + i);
+                }
+                history.add(readRecordBody(in, authors[authorId], texts));
+                in.pos = recordEnd;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            } // Отображение освобождается сборщиком мусора
+        }
+
+        // Читает участок файла целиком: из отображения, если оно есть, иначе из канала
+        private static Reader readBytes(FileChannel channel, ByteBuffer mapped, long position, int length) throws IOException {
+            if (mapped != null) {
+                if (position < 0 || length < 0 || position + length > mapped.capacity()) {
+                    throw new EOFException();
+                }
+                byte[] bytes = new byte[length];
+                mapped.get((int) position, bytes); // Абсолютное чтение: экземпляр можно читать из разных потоков
+                return new Reader(bytes, 0, length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return new Reader(buffer.array(), 0, length);
+        }
+    }
+
+    /**
+     * Таблица авторов (строка -> небольшой числовой id) и словарь повторяющихся текстов файла
+     */
+    public static final class AuthorTable {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> texts = new ArrayList<>();
+        private final Map<String, Integer> textIds = new HashMap<>();
+
+        // Возвращает id автора, добавляя его при первом появлении
+        public int idOf(String author) {
+            Integer id = ids.get(author);
+            if (id == null) {
+                id = names.size();
+                names.add(author);
+                ids.put(author, id);
+            }
+            return id;
+        }
+
+        public String name(int id) {
+            return names.get(id);
+        }
+
+        public int size() {
+            return names.size();
+        }
+
+        // Номер текста в словаре или -1
+        public int textId(String text) {
+            Integer id = textIds.get(text);
+            return id == null ? -1 : id;
+        }
+
+        // Добавляет текст в словарь
+        public int addText(String text) {
+            int id = texts.size();
+            texts.add(text);
+            textIds.putIfAbsent(text, id);
+            return id;
+        }
+
+        public String text(int id) {
+            return texts.get(id);
+        }
+
+        public int textCount() {
+            return texts.size();
+        }
+
+        public void clear() {
+            names.clear();
+            ids.clear();
+            texts.clear();
+            textIds.clear();
+        }
+    }
+
+    // Растущий буфер записи
+    private static final class Buffer {
+        private byte[] data;
+        private int size;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            data[size++] = (byte) (value >>> 24);
+            data[size++] = (byte) (value >>> 16);
+            data[size++] = (byte) (value >>> 8);
+            data[size++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void writeVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, data, size, length);
+            size += length;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(data, 0, size);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    // Чтение из массива байт без промежуточных потоков
+    private static final class Reader {
+        private final byte[] data;
+        private final int limit;
+        private int pos;
+
+        Reader(byte[] data, int pos, int limit) {
+            this.data = data;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        int remaining() {
+            return limit - pos;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= limit) {
+                throw new EOFException();
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            if (limit - pos < 4) {
+                throw new EOFException();
+            }
+            return readIntUnchecked();
+        }
+
+        long readLong() throws IOException {
+            return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+        }
+
+        int readIntUnchecked() {
+            int value = (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+                    | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+            pos += 4;
+            return value;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Слишком длинный varint");
+        }
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Слишком длинный varint");
+        }
+
+        String readString() throws IOException {
+            return readUtf8(readVarint());
+        }
+
+        String readFixedString() throws IOException {
+            return readUtf8(readInt());
+        }
+
+        private String readUtf8(int length) throws IOException {
+            if (length < 0 || length > limit - pos) {
+                throw new EOFException();
+            }
+            String value = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
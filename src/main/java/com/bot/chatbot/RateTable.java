@@ -0,0 +1,299 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Таблица курсов валют к базовой валюте API (USD).
+ * Заполняется за один проход по JSON; код валюты (три латинские буквы) сразу переводится
+ * в индекс, поэтому поиск курса - одно обращение к массиву.
+ */
+public final class RateTable {
+    private static final int CODE_SPACE = 26 * 26 * 26; // Все возможные коды из трех букв
+
+    private final short[] idByCode = new short[CODE_SPACE]; // Код -> id + 1 (0 - нет курса)
+    private String[] codes = new String[64]; // id -> код
+    private double[] rates = new double[64]; // id -> курс к базовой валюте
+    private int size;
+
+    private RateTable() {
+    }
+
+    /**
+     * Разбирает ответ API. Курсы берутся из объекта "rates", а также из полей верхнего уровня
+     * вида "XXX": число (так выглядит упрощенный ответ)
+     * @throws IOException если JSON некорректен
+     */
+    public static RateTable parse(String json) throws IOException {
+        RateTable table = new RateTable();
+        new Parser(json, table).parseDocument();
+        return table;
+    }
+
+    // Количество валют
+    public int size() {
+        return size;
+    }
+
+    // id валюты или -1, если ее нет в таблице
+    public int idOf(String code) {
+        int index = codeIndex(code, 0, code.length());
+        return index < 0 ? -1 : idByCode[index] - 1;
+    }
+
+    // Код валюты по id
+    public String code(int id) {
+        return codes[id];
+    }
+
+    // Курс по id
+    public double rate(int id) {
+        return rates[id];
+    }
+
+    // Курс по коду валюты; 0, если валюты нет
+    public double rate(String code) {
+        int id = idOf(code);
+        return id < 0 ? 0.0 : rates[id];
+    }
+
+    private void put(String json, int start, int end, double rate) {
+        int index = codeIndex(json, start, end);
+        if (index < 0) {
+            return; // Не код валюты
+        }
+        int id = idByCode[index] - 1;
+        if (id < 0) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            id = size++;
+            codes[id] = json.substring(start, end);
+            idByCode[index] = (short) (id + 1);
+        }
+        rates[id] = rate;
+    }
+
+    // Индекс трехбуквенного кода (A-Z) или -1
+    private static int codeIndex(CharSequence s, int start, int end) {
+        if (end - start != 3) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            int c = s.charAt(i) - 'A';
+            if (c < 0 || c >= 26) {
+                return -1;
+            }
+            index = index * 26 + c;
+        }
+        return index;
+    }
+
+    // Однопроходный разбор JSON без построения дерева
+    private static final class Parser {
+        private final String json;
+        private final RateTable table;
+        private int pos;
+        private int keyStart, keyEnd; // Границы последнего ключа (без кавычек и escape-последовательностей)
+
+        Parser(String json, RateTable table) {
+            this.json = json;
+            this.table = table;
+        }
+
+        void parseDocument() throws IOException {
+            skipWhitespace();
+            if (peek() != '{') {
+                throw error("ожидался объект");
+            }
+            parseObject(true);
+            skipWhitespace();
+            if (pos != json.length()) {
+                throw error("лишние данные после JSON");
+            }
+        }
+
+        // Объект; collect - числовые поля с кодами валют попадают в таблицу
+        private void parseObject(boolean collect) throws IOException {
+            pos++; // {
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                parseKey();
+                int start = keyStart, end = keyEnd;
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                char c = peek();
+                if (c == '{' && collect && isKey(start, end, "rates")) {
+                    parseObject(true); // Курсы внутри "rates"
+                } else if (c == '-' || (c >= '0' && c <= '9')) {
+                    double value = parseNumber();
+                    if (collect) {
+                        table.put(json, start, end, value);
+                    }
+                } else {
+                    skipValue();
+                }
+                skipWhitespace();
+                char next = next();
+                if (next == '}') {
+                    return;
+                }
+                if (next != ',') {
+                    throw error("ожидалась ',' или '}'");
+                }
+            }
+        }
+
+        private boolean isKey(int start, int end, String name) {
+            return end - start == name.length() && json.regionMatches(start, name, 0, name.length());
+        }
+
+        // Ключ объекта; escape-последовательности допустимы, но такой ключ не считается кодом валюты
+        private void parseKey() throws IOException {
+            if (peek() != '"') {
+                throw error("ожидался ключ");
+            }
+            keyStart = pos + 1;
+            boolean escaped = skipString();
+            keyEnd = escaped ? keyStart : pos - 1;
+        }
+
+        // Пропускает строку; возвращает true, если в ней были escape-последовательности
+        private boolean skipString() throws IOException {
+            pos++; // "
+            boolean escaped = false;
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return escaped;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+            }
+            throw error("незакрытая строка");
+        }
+
+        // Число JSON: знак, целая часть, дробная часть, экспонента
+        private double parseNumber() throws IOException {
+            int start = pos;
+            if (peek() == '-') {
+                pos++;
+            }
+            int digits = skipDigits();
+            if (pos < json.length() && json.charAt(pos) == '.') {
+                pos++;
+                digits += skipDigits();
+            }
+            if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < json.length() && (json.charAt(pos) == '+' || json.charAt(pos) == '-')) {
+                    pos++;
+                }
+                if (skipDigits() == 0) {
+                    throw error("некорректная экспонента");
+                }
+            }
+            if (digits == 0) {
+                throw error("некорректное число");
+            }
+            return Double.parseDouble(json.substring(start, pos));
+        }
+
+        private int skipDigits() {
+            int start = pos;
+            while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+                pos++;
+            }
+            return pos - start;
+        }
+
+        // Пропускает любое значение
+        private void skipValue() throws IOException {
+            char c = peek();
+            switch (c) {
+                case '{' -> parseObject(false);
+                case '[' -> {
+                    pos++;
+                    skipWhitespace();
+                    if (peek() == ']') {
+                        pos++;
+                        return;
+                    }
+                    while (true) {
+                        skipWhitespace();
+                        skipValue();
+                        skipWhitespace();
+                        char next = next();
+                        if (next == ']') {
+                            return;
+                        }
+                        if (next != ',') {
+                            throw error("ожидалась ',' или ']'");
+                        }
+                    }
+                }
+                case '"' -> skipString();
+                case 't' -> literal("true");
+                case 'f' -> literal("false");
+                case 'n' -> literal("null");
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        parseNumber();
+                    } else {
+                        throw error("неожиданный символ '" + c + "'");
+                    }
+                }
+            }
+        }
+
+        private void literal(String word) throws IOException {
+            if (!json.startsWith(word, pos)) {
+                throw error("ожидалось " + word);
+            }
+            pos += word.length();
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private char peek() throws IOException {
+            if (pos >= json.length()) {
+                throw error("неожиданный конец");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() throws IOException {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) throws IOException {
+            if (next() != c) {
+                throw error("ожидался '" + c + "'");
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException("Некорректный JSON курсов (позиция " + pos + "): " + message);
+        }
+    }
+}
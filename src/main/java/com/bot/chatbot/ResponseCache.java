@@ -0,0 +1,149 @@
+package com.bot.chatbot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш готовых ответов бота для команд, ответ которых однозначно определяется входом
+ * (см. {@link CommandRouter.Kind}): справка, приветствие, выражения, курсы и конвертация.
+ * Ответ по курсам помечается снимком, по которому построен, и не выдается после смены снимка.
+ *
+ * Размер ограничен суммарной длиной ключей и ответов (в символах); при переполнении
+ * вытесняются давно не запрошенные ответы. Кэш разбит на сегменты со своими блокировками,
+ * чтобы потоки сервера не ждали друг друга.
+ */
+public final class ResponseCache {
+    private static final int SEGMENTS = 16; // Степень двойки
+    private static final int ENTRY_OVERHEAD = 64; // Примерная цена записи в символах (объекты, ссылки)
+
+    private static volatile ResponseCache shared; // Общий кэш для всех пользователей
+
+    /**
+     * Ключ: сообщение и, для ответов вида USER, имя пользователя
+     */
+    private record Key(String user, String message) {
+    }
+
+    private record Entry(String response, Object snapshot) {
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxChars предел суммарной длины ключей и ответов
+     */
+    public ResponseCache(long maxChars) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxChars / SEGMENTS));
+        }
+    }
+
+    // Общий кэш ответов (создается при первом обращении; chatbot.responseCache.maxChars=0 - выключен)
+    public static ResponseCache shared() {
+        ResponseCache cache = shared;
+        if (cache == null) {
+            synchronized (ResponseCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    long maxChars = BotConfig.getLong("responseCache.maxChars", 2_000_000);
+                    cache = maxChars > 0 ? new ResponseCache(maxChars) : null;
+                    shared = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Готовый ответ или null
+     * @param user имя пользователя (только для ответов вида USER, иначе null)
+     * @param snapshot текущий снимок курсов (только для ответов вида SNAPSHOT, иначе null)
+     */
+    public String get(String user, String message, Object snapshot) {
+        Key key = new Key(user, message);
+        Entry entry = segmentFor(key).get(key);
+        if (entry != null && entry.snapshot == snapshot) { // Тот же объект снимка
+            hits.increment();
+            return entry.response;
+        }
+        misses.increment();
+        return null; // Нет ответа или снимок курсов сменился - ответ будет заменен
+    }
+
+    // Запоминает ответ (параметры - как в get)
+    public void put(String user, String message, Object snapshot, String response) {
+        Key key = new Key(user, message);
+        segmentFor(key).put(key, new Entry(response, snapshot));
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Доля ответов из кэша среди кэшируемых запросов
+    public double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Сегмент: LRU-список с учетом размера записей
+     */
+    private static final class Segment {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private final long maxChars;
+        private long chars; // Текущий размер
+
+        Segment(long maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        synchronized Entry get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, Entry entry) {
+            long size = size(key, entry);
+            if (size > maxChars) {
+                return; // Ответ больше всего сегмента - не кэшируем
+            }
+            Entry old = entries.put(key, entry);
+            chars += size - (old == null ? 0 : size(key, old));
+            Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (chars > maxChars && eldest.hasNext()) {
+                Map.Entry<Key, Entry> evicted = eldest.next();
+                chars -= size(evicted.getKey(), evicted.getValue());
+                eldest.remove();
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            chars = 0;
+        }
+
+        private static long size(Key key, Entry entry) {
+            return ENTRY_OVERHEAD + (key.user == null ? 0 : key.user.length()) + key.message.length() + entry.response.length();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.bot.chatbot;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Инвертированный индекс истории сообщений для полнотекстового поиска.
+ * Для каждого слова хранится возрастающий список номеров сообщений, в которых оно встречается.
+ * Слова - последовательности букв и цифр (кириллица и латиница), без учета регистра, "ё" = "е".
+ * Сообщения добавляются по порядку: номер сообщения в индексе совпадает с номером в истории.
+ *
+ * Запрос - слова через пробел, все должны встретиться в сообщении; "слово*" ищет по началу слова.
+ * Методы синхронизированы: индекс пополняется при сохранении сообщений и читается при поиске.
+ */
+public class SearchIndex {
+    private static final int MAGIC = 0x43425849; // "CBXI"
+    private static final int VERSION = 1;
+    private static final int MAX_TOKEN_LENGTH = 64; // Длиннее - обрезается
+
+    private final NavigableMap<String, Postings> terms = new TreeMap<>(); // Слово -> номера сообщений
+    private int size; // Сообщений в индексе
+
+    // Сообщений в индексе (номер следующего сообщения)
+    public synchronized int size() {
+        return size;
+    }
+
+    // Пропускает номера до position (сообщения, удаленные из истории, в индекс не попадают)
+    public synchronized void advanceTo(int position) {
+        size = Math.max(size, position);
+    }
+
+    // Добавляет следующее по порядку сообщение
+    public synchronized void add(String text) {
+        int doc = size++;
+        for (String token : tokenize(text)) {
+            terms.computeIfAbsent(token, t -> new Postings()).add(doc);
+        }
+    }
+
+    /**
+     * Ищет сообщения, содержащие все слова запроса
+     * @param limit максимум результатов
+     * @return номера сообщений, от новых к старым
+     */
+    public synchronized int[] search(String query, int limit) {
+        List<Postings[]> clauses = new ArrayList<>(); // Для каждого слова запроса - подходящие списки
+        for (String chunk : query.trim().split("\\s+")) {
+            List<String> tokens = tokenize(chunk);
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                boolean prefix = chunk.endsWith("*") && i == tokens.size() - 1;
+                Postings[] clause = prefix
+                        ? terms.subMap(token, true, token + Character.MAX_VALUE, false).values().toArray(new Postings[0])
+                        : terms.containsKey(token) ? new Postings[]{terms.get(token)} : new Postings[0];
+                if (clause.length == 0) {
+                    return new int[0]; // Слова нет ни в одном сообщении
+                }
+                clauses.add(clause);
+            }
+        }
+        if (clauses.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+
+        // Перебираем самое редкое слово от новых сообщений к старым и проверяем остальные
+        Postings[] driver = clauses.get(0);
+        for (Postings[] clause : clauses) {
+            if (totalSize(clause) < totalSize(driver)) {
+                driver = clause;
+            }
+        }
+        int[] found = new int[limit];
+        int count = 0;
+        DescendingMerge candidates = new DescendingMerge(driver);
+        for (int doc = candidates.next(); doc >= 0 && count < limit; doc = candidates.next()) {
+            if (matchesAll(clauses, driver, doc)) {
+                found[count++] = doc;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // Разбивает текст на слова для индекса
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TOKEN_LENGTH) {
+                    char lower = Character.toLowerCase(c);
+                    token.append(lower == 'ё' ? 'е' : lower);
+                }
+            } else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean matchesAll(List<Postings[]> clauses, Postings[] driver, int doc) {
+        for (Postings[] clause : clauses) {
+            if (clause == driver) {
+                continue;
+            }
+            boolean matches = false;
+            for (Postings postings : clause) {
+                if (postings.contains(doc)) {
+                    matches = true;
+                    break;
+                }
+            }
+            if (!matches) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long totalSize(Postings[] clause) {
+        long total = 0;
+        for (Postings postings : clause) {
+            total += postings.size;
+        }
+        return total;
+    }
+
+    /**
+     * Читает индекс с диска
+     * @return индекс или null, если файла нет или он поврежден (индекс тогда строится заново)
+     */
+    public static SearchIndex load(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                return null;
+            }
+            SearchIndex index = new SearchIndex();
+            index.size = in.readInt();
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                Postings postings = new Postings(in.readInt());
+                int doc = 0;
+                for (int i = 0; i < postings.docs.length; i++) {
+                    doc += readVarint(in); // Номера хранятся разностями
+                    postings.docs[i] = doc;
+                }
+                postings.size = postings.docs.length;
+                index.terms.put(term, postings);
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Индекс поиска поврежден и будет построен заново: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Сохраняет индекс на диск (через временный файл; у каждого процесса - свой)
+    public synchronized void save(Path file) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(size);
+            out.writeInt(terms.size());
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Postings postings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(postings.size);
+                int previous = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    writeVarint(out, postings.docs[i] - previous);
+                    previous = postings.docs[i];
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Некорректное число в индексе");
+    }
+
+    /**
+     * Возрастающий список номеров сообщений
+     */
+    private static final class Postings {
+        private int[] docs;
+        private int size;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            docs = new int[capacity];
+        }
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return; // Слово повторяется в одном сообщении
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, Math.max(4, size * 2));
+            }
+            docs[size++] = doc;
+        }
+
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+    }
+
+    /**
+     * Обход объединения нескольких списков от больших номеров к меньшим без повторов
+     */
+    private static final class DescendingMerge {
+        private final PriorityQueue<int[]> heap = new PriorityQueue<>((a, b) -> Integer.compare(b[0], a[0])); // {номер, список, позиция}
+        private final Postings[] lists;
+        private int last = -1;
+
+        DescendingMerge(Postings[] lists) {
+            this.lists = lists;
+            for (int i = 0; i < lists.length; i++) {
+                if (lists[i].size > 0) {
+                    heap.add(new int[]{lists[i].docs[lists[i].size - 1], i, lists[i].size - 1});
+                }
+            }
+        }
+
+        // Следующий номер или -1
+        int next() {
+            while (!heap.isEmpty()) {
+                int[] top = heap.poll();
+                int doc = top[0];
+                if (top[2] > 0) {
+                    top[2]--;
+                    top[0] = lists[top[1]].docs[top[2]];
+                    heap.add(top);
+                }
+                if (doc != last) {
+                    last = doc;
+                    return doc;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.bot.chatbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Реестр сессий пользователей сервера.
+ * На каждого пользователя - один {@link IBot}; запросы одного пользователя выполняются
+ * по очереди (сообщение и ответ попадают в историю парами), разных пользователей - параллельно.
+ * Сессии, к которым давно не обращались, закрываются и удаляются из реестра.
+ * Закрытие (дозапись журнала, fsync) идет вне блокировки карты; новая сессия того же пользователя
+ * ждет его окончания, поэтому записи старой и новой сессии в журнале не перемешиваются.
+ */
+public final class SessionRegistry implements AutoCloseable {
+    /**
+     * Сессия одного пользователя
+     */
+    public static final class Session {
+        private final String userName; // Имя пользователя
+        private final IBot bot; // Логика бота пользователя
+        private final ReentrantLock lock = new ReentrantLock(); // Очередность запросов пользователя
+        private int active; // Запросов в работе (под блокировкой реестра по ключу)
+        private volatile long lastAccess = System.currentTimeMillis(); // Время последнего обращения, мс
+
+        private Session(String userName, IBot bot) {
+            this.userName = userName;
+            this.bot = bot;
+        }
+
+        /**
+         * Обрабатывает сообщение пользователя и сохраняет его вместе с ответом.
+         * Если ответ не получен (таймаут, исключение в обработчике - и в фоне, и сразу при вызове),
+         * в историю вместо него попадает сообщение об ошибке
+         * @return ответ бота
+         * @throws CompletionException если ответ не получен; причина - исходная ошибка
+         */
+        public String chat(String text) {
+            lock.lock();
+            try {
+                Message message = new Message(userName, text, System.currentTimeMillis(), true);
+                String response;
+                try {
+                    response = bot.getResponseAsync(text).toCompletableFuture().join(); // С таймаутом ответа
+                } catch (RuntimeException e) { // Быстрые команды отвечают в этом же потоке и бросают сами
+                    CompletionException failure = e instanceof CompletionException completion
+                            ? completion : new CompletionException(e);
+                    bot.saveMessage(message);
+                    bot.saveMessage(new Message("Бот", failure.getCause() instanceof TimeoutException
+                            ? "Бот не успел ответить. Попробуйте позже."
+                            : "Не удалось получить ответ. Попробуйте позже.", System.currentTimeMillis(), false));
+                    throw failure;
+                }
+                bot.saveMessage(message);
+                bot.saveMessage(new Message("Бот", response, System.currentTimeMillis(), false));
+                return response;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Последняя страница истории пользователя
+         */
+        public List<Message> history() {
+            lock.lock();
+            try {
+                return bot.loadHistory().toList();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>(); // Имя -> сессия
+    private final ConcurrentMap<String, CompletableFuture<Void>> closing = new ConcurrentHashMap<>(); // Имя -> закрытие прежней сессии
+    private final Function<String, IBot> botFactory; // Создает бота для нового пользователя
+    private final long idleMillis; // Через сколько простоя сессия закрывается
+    private final ScheduledExecutorService evictor; // Периодическая очистка (null - вручную)
+
+    /**
+     * @param botFactory создает бота для пользователя
+     * @param idleMillis время простоя, после которого сессия закрывается
+     * @param evictIntervalMillis период проверки простоя (0 - только вызовом evictIdle)
+     */
+    public SessionRegistry(Function<String, IBot> botFactory, long idleMillis, long evictIntervalMillis) {
+        this.botFactory = botFactory;
+        this.idleMillis = idleMillis;
+        if (evictIntervalMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(() -> evictIdle(System.currentTimeMillis()),
+                    evictIntervalMillis, evictIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    /**
+     * Берет сессию пользователя (создает при первом обращении); после работы вызвать release.
+     * Бот создается вне блокировки карты: создание обращается к диску и не должно задерживать
+     * пользователей, чьи ключи попали в ту же ячейку. Если прежняя сессия пользователя еще закрывается,
+     * ждет, пока она допишет журнал. Имя приводится к форме NFC: разные записи одного имени - одна сессия
+     */
+    public Session acquire(String userName) {
+        userName = UserDirectory.normalize(userName);
+        while (true) {
+            Session existing = sessions.get(userName);
+            if (existing == null) {
+                Session created = new Session(userName, botFactory.apply(userName));
+                existing = sessions.putIfAbsent(userName, created);
+                if (existing == null) {
+                    existing = created;
+                } else {
+                    created.bot.close(); // Другой запрос создал сессию раньше
+                }
+            }
+            Session session = existing;
+            Session taken = sessions.computeIfPresent(userName, (name, current) -> {
+                if (current == session) {
+                    current.active++;
+                    current.lastAccess = System.currentTimeMillis();
+                }
+                return current;
+            });
+            if (taken == session) {
+                awaitClosed(userName); // Сессия уже взята и по простою не закроется
+                return session;
+            } // Сессию успели закрыть по простою - берем новую
+        }
+    }
+
+    // Отпускает сессию, взятую acquire
+    public void release(Session session) {
+        sessions.computeIfPresent(session.userName, (name, current) -> {
+            current.active--;
+            current.lastAccess = System.currentTimeMillis();
+            return current;
+        });
+    }
+
+    /**
+     * Закрывает сессии, простаивающие дольше заданного времени
+     * @param now текущее время, мс
+     * @return количество закрытых сессий
+     */
+    public int evictIdle(long now) {
+        int evicted = 0;
+        for (String userName : new ArrayList<>(sessions.keySet())) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            Session[] removed = new Session[1];
+            sessions.computeIfPresent(userName, (name, session) -> {
+                if (session.active > 0 || now - session.lastAccess < idleMillis) {
+                    return session;
+                }
+                closing.put(name, done); // До удаления: acquire, не нашедший сессию, увидит закрытие
+                removed[0] = session;
+                return null;
+            });
+            if (removed[0] != null) {
+                finishClose(removed[0], done, false);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    // Закрывает удаленную из реестра сессию (вне блокировки карты) и отпускает ждущие acquire
+    private void finishClose(Session session, CompletableFuture<Void> done, boolean checkpoint) {
+        try {
+            if (checkpoint) {
+                session.bot.saveHistoryToFile(); // Дописываем очередь и сворачиваем журнал
+            }
+            session.bot.close();
+        } finally {
+            closing.remove(session.userName, done);
+            done.complete(null);
+        }
+    }
+
+    // Ждет закрытия прежней сессии пользователя, если оно идет
+    private void awaitClosed(String userName) {
+        CompletableFuture<Void> done = closing.get(userName);
+        if (done != null) {
+            done.join();
+        }
+    }
+
+    // Количество открытых сессий
+    public int size() {
+        return sessions.size();
+    }
+
+    // Закрывает все сессии
+    @Override
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        for (String userName : new ArrayList<>(sessions.keySet())) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            Session[] removed = new Session[1];
+            sessions.computeIfPresent(userName, (name, session) -> {
+                closing.put(name, done);
+                removed[0] = session;
+                return null;
+            });
+            if (removed[0] != null) {
+                finishClose(removed[0], done, true);
+            }
+        }
+    }
+}
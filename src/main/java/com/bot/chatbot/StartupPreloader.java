@@ -0,0 +1,130 @@
+package com.bot.chatbot;
+
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.image.Image;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Подготовка приложения, пока показано окно входа. Параллельно, в фоновых потоках:
+ * декодируется иконка, разбирается Chat.fxml (узлы можно создавать вне потока JavaFX,
+ * пока они не показаны), читаются индекс пользователей и последние страницы истории недавних
+ * пользователей (классы формата и файлы попадают в память) и загружается снимок курсов валют.
+ * После входа окно чата берет готовые результаты, а не загружает их в потоке JavaFX.
+ */
+public class StartupPreloader {
+    /**
+     * Разобранное окно чата
+     * @param root корневой узел
+     * @param controller контроллер окна
+     */
+    public record ChatView(Parent root, ChatController controller) {
+    }
+
+    private static final int PRELOAD_USERS = (int) BotConfig.getLong("startup.preloadUsers", 4); // Недавних пользователей
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "startup-preload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean chatViewTaken = new AtomicBoolean(); // Разобранное окно уже отдано
+    private final CompletableFuture<Image> icon; // Иконка приложения (null, если ее нет)
+    private final CompletableFuture<ChatView> chatView; // Разобранное окно чата
+    private final CompletableFuture<Void> all; // Все задачи подготовки
+
+    private StartupPreloader() {
+        icon = CompletableFuture.supplyAsync(StartupPreloader::loadIcon, executor);
+        chatView = CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadChatView();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        CompletableFuture<Void> history = CompletableFuture.runAsync(StartupPreloader::preloadHistories, executor);
+        CompletableFuture<Void> currency = CompletableFuture.runAsync(StartupPreloader::warmUpCurrency, executor);
+        all = CompletableFuture.allOf(icon, chatView, history, currency).exceptionally(e -> null);
+        executor.shutdown(); // Потоки завершатся вместе с задачами
+    }
+
+    // Запускает подготовку в фоне
+    public static StartupPreloader start() {
+        return new StartupPreloader();
+    }
+
+    // Иконка приложения (декодируется в фоне)
+    public CompletableFuture<Image> icon() {
+        return icon;
+    }
+
+    // Завершение всех задач подготовки (в том числе с ошибками)
+    public CompletableFuture<Void> whenDone() {
+        return all;
+    }
+
+    /**
+     * Окно чата: заранее разобранное или, если разбор не удался или окно уже отдано, загруженное заново
+     * @throws IOException если Chat.fxml не загружается
+     */
+    public ChatView takeChatView() throws IOException {
+        if (chatViewTaken.compareAndSet(false, true)) {
+            try {
+                return chatView.join(); // Обычно уже готово: пользователь вводил имя
+            } catch (RuntimeException e) {
+                System.err.println("Окно чата не подготовлено заранее: " + e.getMessage());
+            }
+        }
+        return loadChatView();
+    }
+
+    // Разбирает Chat.fxml
+    static ChatView loadChatView() throws IOException {
+        FXMLLoader loader = new FXMLLoader(StartupPreloader.class.getResource("/com/bot/chatbot/Chat.fxml"));
+        Parent root = loader.load();
+        return new ChatView(root, loader.getController());
+    }
+
+    // Декодирует иконку приложения
+    private static Image loadIcon() {
+        URL iconUrl = StartupPreloader.class.getResource("/image.png");
+        return iconUrl == null ? null : new Image(iconUrl.toString()); // Синхронно, в этом же потоке
+    }
+
+    // Читает индекс пользователей и последнюю страницу истории недавних из них (только чтение, файлы не меняются)
+    private static void preloadHistories() {
+        UserDirectory users = UserDirectory.shared();
+        for (UserIndex.Entry user : users.index().recent(PRELOAD_USERS)) {
+            Path file = users.file(user.name(), "dat");
+            if (!Files.exists(file)) {
+                continue; // История еще только в журнале
+            }
+            try (MessageCodec.IndexedSnapshot snapshot = MessageCodec.IndexedSnapshot.open(file)) {
+                if (snapshot != null) { // Старый формат переведет сам бот при входе
+                    int count = snapshot.count();
+                    snapshot.read(Math.max(0, count - ChatBotLogic.HISTORY_PAGE_SIZE), count, new ArrayList<>());
+                }
+            } catch (IOException e) {
+                System.err.println("Ошибка предварительного чтения истории " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Загружает снимок курсов (с диска, а если его нет - из сети), чтобы первый ответ по курсам не ждал
+    private static void warmUpCurrency() {
+        try {
+            CurrencyRateCache.shared().get();
+        } catch (IOException e) {
+            System.err.println("Курсы валют не загружены заранее: " + e.getMessage());
+        }
+    }
+}
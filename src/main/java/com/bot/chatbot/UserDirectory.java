@@ -0,0 +1,230 @@
+package com.bot.chatbot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Каталог истории пользователей. Файлы пользователя лежат в подкаталоге по первым двум
+ * шестнадцатеричным цифрам хэша имени (256 подкаталогов), под безопасным именем: латинские буквы
+ * и цифры из имени для читаемости и 16 цифр SHA-256 от имени в форме NFC, например
+ * user_histories/3f/igor-3f9a0c12d4e5b678.dat. Кириллица, пробелы, "/" и т.п. в имена файлов
+ * не попадают, а имена, различающиеся только регистром, не совпадут и в Windows.
+ *
+ * Рядом, в корне, - {@link UserIndex} (users.idx). Файлы прежнего плоского вида
+ * history_<имя>.* переносятся в подкаталог при первом обращении к истории пользователя или утилитой
+ * {@link HistoryMigrator}.
+ *
+ * Открытие хранилища на диск не пишет: подкаталог создается и пользователь попадает в индекс
+ * только перед первой записью истории ({@link #register}). Индекс каталога приложения
+ * сохраняется один раз, при завершении процесса.
+ */
+public class UserDirectory {
+    public static final String DEFAULT_ROOT = "user_histories"; // Каталог истории по умолчанию
+    private static final String LEGACY_PREFIX = "history_"; // Начало имен файлов плоского вида
+    private static final int READABLE_LENGTH = 24; // Читаемая часть имени файла, символов
+    private static final int HASH_BYTES = 8; // Байт хэша в имени файла
+
+    private static volatile UserDirectory shared; // Каталог приложения
+
+    private final Path root; // Корень каталога истории
+    private final Path indexFile; // Файл индекса пользователей
+    private final UserIndex index; // Индекс пользователей (читается при создании)
+
+    public UserDirectory(Path root) {
+        this.root = root;
+        this.indexFile = root.resolve("users.idx");
+        this.index = UserIndex.load(indexFile);
+    }
+
+    // Каталог истории приложения (индекс читается при первом обращении)
+    public static UserDirectory shared() {
+        UserDirectory directory = shared;
+        if (directory == null) {
+            synchronized (UserDirectory.class) {
+                directory = shared;
+                if (directory == null) {
+                    directory = new UserDirectory(Paths.get(DEFAULT_ROOT));
+                    Runtime.getRuntime().addShutdownHook(new Thread(directory::saveIndexQuietly, "user-index-save"));
+                    shared = directory;
+                }
+            }
+        }
+        return directory;
+    }
+
+    // Заменяет каталог приложения (для тестов); индекс прежнего каталога не сохраняется
+    static void setShared(UserDirectory directory) {
+        synchronized (UserDirectory.class) {
+            shared = directory;
+        }
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public UserIndex index() {
+        return index;
+    }
+
+    // Имя пользователя в форме NFC: одинаково выглядящие имена - один пользователь
+    public static String normalize(String userName) {
+        return Normalizer.normalize(userName, Normalizer.Form.NFC);
+    }
+
+    // Безопасное имя файлов пользователя (без расширения)
+    public static String fileStem(String userName) {
+        String name = normalize(userName);
+        StringBuilder readable = new StringBuilder();
+        for (int i = 0; i < name.length() && readable.length() < READABLE_LENGTH; i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                readable.append(c);
+            } else if (!readable.isEmpty() && readable.charAt(readable.length() - 1) != '-') {
+                readable.append('-');
+            }
+        }
+        if (!readable.isEmpty() && readable.charAt(readable.length() - 1) != '-') {
+            readable.append('-');
+        }
+        return readable + hash(name);
+    }
+
+    // Подкаталог с файлами пользователя
+    public Path directoryOf(String userName) {
+        return root.resolve(hash(normalize(userName)).substring(0, 2)); // Хэш - от имени в форме NFC
+    }
+
+    // Файл пользователя с заданным расширением ("dat", "journal", "idx")
+    public Path file(String userName, String extension) {
+        return directoryOf(userName).resolve(fileStem(userName) + "." + extension);
+    }
+
+    // Хранилище истории пользователя (на диск не обращается; см. migrateIfNew и register)
+    public HistoryStore openStore(String userName) {
+        String name = normalize(userName);
+        return HistoryStore.withFileStem(directoryOf(name), fileStem(name), HistoryStore.RetentionPolicy.forUser(name));
+    }
+
+    // Перед первым чтением истории: пользователь, которого нет в индексе, мог остаться в плоском виде
+    public void migrateIfNew(String userName) {
+        String name = normalize(userName);
+        if (index.get(name) != null) {
+            return;
+        }
+        try {
+            migrate(userName);
+            if (!name.equals(userName)) {
+                migrate(name); // Файлы могли быть записаны и под именем в форме NFC
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка переноса истории пользователя " + userName + ": " + e.getMessage());
+        }
+    }
+
+    // Перед первой записью истории: создает подкаталог пользователя и отмечает его в индексе активным
+    public void register(String userName) throws IOException {
+        String name = normalize(userName);
+        Files.createDirectories(directoryOf(name));
+        index.touch(name, System.currentTimeMillis());
+    }
+
+    // Сохраняет индекс пользователей, если он менялся
+    public void saveIndex() throws IOException {
+        index.save(indexFile);
+    }
+
+    // Сохранение индекса при завершении процесса
+    private void saveIndexQuietly() {
+        try {
+            saveIndex();
+        } catch (IOException e) {
+            System.err.println("Ошибка сохранения индекса пользователей: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Переносит файлы пользователя из плоского вида в его подкаталог (снимок, журнал, индекс поиска, архивы)
+     * @return перенесено файлов
+     * @throws FileAlreadyExistsException если такой файл в подкаталоге уже есть
+     */
+    public int migrate(String userName) throws IOException {
+        String name = normalize(userName); // Подкаталог и имя файлов - как в openStore
+        String prefix = LEGACY_PREFIX + userName + "."; // Плоские файлы - под именем в том виде, как его ввели
+        try {
+            if (!Files.exists(root.resolve(prefix + "dat")) && !Files.exists(root.resolve(prefix + "journal"))) {
+                return 0; // Проверка без чтения каталога
+            }
+        } catch (InvalidPathException e) {
+            return 0; // Имя недопустимо в пути - плоских файлов у него быть не могло
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, file -> {
+            String fileName = file.getFileName().toString();
+            return fileName.startsWith(prefix) && isHistoryFile(fileName.substring(prefix.length()));
+        })) {
+            stream.forEach(files::add);
+        }
+        Path directory = Files.createDirectories(directoryOf(name));
+        String stem = fileStem(name);
+        int moved = 0;
+        for (Path file : files) {
+            String suffix = file.getFileName().toString().substring(prefix.length());
+            try {
+                Files.move(file, directory.resolve(stem + "." + suffix), StandardCopyOption.ATOMIC_MOVE);
+                moved++;
+            } catch (NoSuchFileException e) {
+                // Файл уже перенес другой процесс
+            }
+        }
+        Files.deleteIfExists(root.resolve(prefix + "lock"));
+        return moved;
+    }
+
+    // Пользователи, чьи файлы еще в плоском виде (по снимкам и журналам в корне)
+    public List<String> legacyUsers() throws IOException {
+        Set<String> users = new LinkedHashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, LEGACY_PREFIX + "*.{dat,journal}")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                users.add(name.substring(LEGACY_PREFIX.length(), name.lastIndexOf('.')));
+            }
+        }
+        return new ArrayList<>(users);
+    }
+
+    // Окончание имени файла истории после "history_<имя>.": dat, journal, idx или <номер>.seg.gz
+    private static boolean isHistoryFile(String suffix) {
+        if (suffix.equals("dat") || suffix.equals("journal") || suffix.equals("idx")) {
+            return true;
+        }
+        String number = suffix.endsWith(".seg.gz") ? suffix.substring(0, suffix.length() - ".seg.gz".length()) : "";
+        return !number.isEmpty() && number.chars().allMatch(Character::isDigit);
+    }
+
+    // Первые HASH_BYTES байт SHA-256 имени в шестнадцатеричном виде
+    private static String hash(String normalizedName) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalizedName.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, HASH_BYTES);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e); // Обязателен в любой JVM
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.bot.chatbot;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс пользователей: имя, размер истории (сообщений) и время последней активности.
+ * Целиком хранится в памяти, на диске - компактный файл users.idx в корне каталога истории.
+ * По нему бот узнает, есть ли у пользователя история, и выбирает недавних пользователей,
+ * не перебирая файлы каталога.
+ *
+ * Индекс одного каталога могут обновлять несколько процессов: при сохранении файл перечитывается
+ * под блокировкой users.lock и объединяется с изменениями в памяти (для каждого имени - более свежая запись).
+ */
+public class UserIndex {
+    private static final int MAGIC = 0x43425549; // "CBUI"
+    private static final int VERSION = 1;
+    private static final Object SAVE_LOCK = new Object(); // Файловую блокировку процесс берет один раз
+
+    /**
+     * Запись индекса
+     * @param name имя пользователя
+     * @param messages сообщений в истории за все время, включая удаленные (номер следующего сообщения)
+     * @param lastActive время последней активности, мс от эпохи
+     */
+    public record Entry(String name, int messages, long lastActive) {
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty; // Есть несохраненные изменения
+
+    // Запись пользователя или null, если его нет в индексе
+    public Entry get(String userName) {
+        return entries.get(userName);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    // До limit пользователей, начиная с самого недавно активного
+    public List<Entry> recent(int limit) {
+        List<Entry> all = new ArrayList<>(entries.values());
+        all.sort(Comparator.comparingLong(Entry::lastActive).reversed());
+        return all.subList(0, Math.min(limit, all.size()));
+    }
+
+    // Пользователь активен сейчас (вход в чат); добавляется, если его не было
+    public void touch(String userName, long time) {
+        entries.merge(userName, new Entry(userName, 0, time),
+                (old, added) -> new Entry(userName, old.messages, Math.max(old.lastActive, time)));
+        dirty = true;
+    }
+
+    // В историю пользователя добавлены сообщения
+    public void recordMessages(String userName, int added, long time) {
+        entries.merge(userName, new Entry(userName, added, time),
+                (old, entry) -> new Entry(userName, old.messages + added, Math.max(old.lastActive, time)));
+        dirty = true;
+    }
+
+    // Точный размер истории (после ее чтения)
+    public void recordSize(String userName, int messages) {
+        entries.merge(userName, new Entry(userName, messages, System.currentTimeMillis()),
+                (old, entry) -> new Entry(userName, messages, old.lastActive));
+        dirty = true;
+    }
+
+    /**
+     * Читает индекс с диска
+     * @return индекс; пустой, если файла нет или он поврежден
+     */
+    public static UserIndex load(Path file) {
+        UserIndex index = new UserIndex();
+        try {
+            for (Entry entry : read(file)) {
+                index.entries.put(entry.name, entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Индекс пользователей поврежден и будет собран заново: " + e.getMessage());
+        }
+        return index;
+    }
+
+    // Сохраняет индекс, если он менялся, объединяя его с файлом на диске
+    public void save(Path file) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        synchronized (SAVE_LOCK) {
+            Path lockFile = file.resolveSibling("users.lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.lock(); // Снимается при закрытии канала
+                dirty = false; // Изменения, сделанные во время записи, попадут в следующее сохранение
+                try {
+                    for (Entry entry : read(file)) {
+                        entries.merge(entry.name, entry, (ours, theirs) -> ours.lastActive >= theirs.lastActive ? ours : theirs);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Индекс пользователей на диске поврежден и будет перезаписан: " + e.getMessage());
+                }
+                write(file);
+            } catch (IOException | RuntimeException e) {
+                dirty = true;
+                throw e;
+            }
+        }
+    }
+
+    private static List<Entry> read(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("неизвестный формат " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(in.readUTF(), in.readInt(), in.readLong()));
+            }
+        } catch (NoSuchFileException e) {
+            return entries;
+        }
+        return entries;
+    }
+
+    // Записывает индекс через временный файл
+    private void write(Path file) throws IOException {
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.name);
+                out.writeInt(entry.messages);
+                out.writeLong(entry.lastActive);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -2,7 +2,19 @@ module com.bot.chatbot {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.desktop;
+    requires java.management; // Метрики в JMX (BotMetrics)
+    requires jdk.httpserver; // BotServer
 
     opens com.bot.chatbot to javafx.fxml, javafx.graphics;
     exports com.bot.chatbot;
+
+    uses com.bot.chatbot.CommandHandler; // Команды бота (CommandHandlers)
+    provides com.bot.chatbot.CommandHandler with
+            com.bot.chatbot.BuiltinCommands.Help,
+            com.bot.chatbot.BuiltinCommands.Greeting,
+            com.bot.chatbot.BuiltinCommands.Time,
+            com.bot.chatbot.BuiltinCommands.Expression,
+            com.bot.chatbot.BuiltinCommands.Currency,
+            com.bot.chatbot.BuiltinCommands.Conversion,
+            com.bot.chatbot.BuiltinCommands.Search;
 }
\ No newline at end of file
@@ -1,25 +1,45 @@
 package com.bot.chatbot;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 import java.io.*;
 import java.nio.file.*;
-import javafx.collections.ObservableList;
 import javafx.scene.control.ListView;
 
 public class TestIsSorted {
     private ChatBotLogic bot;
     private static final String TEST_USER = "TestUser";
-    private static final String TEST_HISTORY_FILE = "user_histories/history_" + TEST_USER + ".dat";
+    private static final String[] TEST_USER_FILES = {"dat", "journal", "idx", "lock"}; // Файлы в подкаталоге пользователя
+
+    @TempDir
+    static Path historyRoot; // Каталог истории на время тестов (вместо user_histories)
+    private static Path TEST_HISTORY_FILE; // Файлы плоского вида history_<user>.* в корне
+    private static Path TEST_JOURNAL_FILE;
+    private static Path TEST_INDEX_FILE;
+    private static Path TEST_LOCK_FILE;
+
+    @BeforeAll
+    static void useTempHistory() {
+        UserDirectory.setShared(new UserDirectory(historyRoot));
+        TEST_HISTORY_FILE = historyRoot.resolve("history_" + TEST_USER + ".dat");
+        TEST_JOURNAL_FILE = historyRoot.resolve("history_" + TEST_USER + ".journal");
+        TEST_INDEX_FILE = historyRoot.resolve("history_" + TEST_USER + ".idx");
+        TEST_LOCK_FILE = historyRoot.resolve("history_" + TEST_USER + ".lock");
+    }
 
     @BeforeEach
     void setUp() {
         bot = new ChatBotLogic(TEST_USER);
         // Удаляем тестовый файл истории перед каждым тестом
         try {
-            Files.deleteIfExists(Paths.get(TEST_HISTORY_FILE));
+            Files.deleteIfExists(TEST_HISTORY_FILE);
+            Files.deleteIfExists(TEST_JOURNAL_FILE);
+            Files.deleteIfExists(TEST_INDEX_FILE);
+            deleteUserFiles();
         } catch (IOException e) {
             System.err.println("Ошибка удаления тестового файла: " + e.getMessage());
         }
@@ -29,12 +49,33 @@ public class TestIsSorted {
     void tearDown() {
         // Удаляем тестовый файл истории после каждого теста
         try {
-            Files.deleteIfExists(Paths.get(TEST_HISTORY_FILE));
+            Files.deleteIfExists(TEST_HISTORY_FILE);
+            Files.deleteIfExists(TEST_JOURNAL_FILE);
+            Files.deleteIfExists(TEST_INDEX_FILE);
+            Files.deleteIfExists(TEST_LOCK_FILE);
+            deleteUserFiles();
         } catch (IOException e) {
             System.err.println("Ошибка удаления тестового файла: " + e.getMessage());
         }
     }
 
+    // Имя файла представимо в файловой системе
+    private static boolean isValidPath(Path directory, String fileName) {
+        try {
+            directory.resolve(fileName);
+            return true;
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    // Удаляет файлы тестового пользователя в его подкаталоге
+    private static void deleteUserFiles() throws IOException {
+        for (String extension : TEST_USER_FILES) {
+            Files.deleteIfExists(UserDirectory.shared().file(TEST_USER, extension));
+        }
+    }
+
     // Тесты для ChatBotLogic
     @Test
     void testGetResponse_HelpCommand() {
@@ -48,7 +89,87 @@ public class TestIsSorted {
     void testGetResponse_Multiplication() {
         assertEquals("5 * 3 = 15", bot.getResponse("5 * 3"));
         assertEquals("10 * 10 = 100", bot.getResponse("10*10"));
-        assertTrue(bot.getResponse("5 * abc").contains("Ошибка"));
+        assertTrue(bot.getResponse("5 * abc").startsWith("Не понимаю")); // Слово - не функция калькулятора
+    }
+
+    @Test
+    void testCalculator() {
+        assertEquals("2 + 3 * 4 = 14", bot.getResponse("2+3*4"));
+        assertEquals("(2 + 3) * 4 = 20", bot.getResponse("(2 + 3) * 4"));
+        assertEquals("2 ^ 3 ^ 2 = 512", bot.getResponse("2^3^2"));
+        assertEquals("-2 ^ 2 = -4", bot.getResponse("-2^2"));
+        assertEquals("sqrt(16) + max(1, 5, 3) = 9", bot.getResponse("sqrt(16) + max(1,5,3)"));
+        assertEquals("1 / 4 = 0.25", bot.getResponse("1/4"));
+        assertEquals("1 / 3 * 3 = 1", bot.getResponse("1/3*3"));
+        assertEquals("9223372036854775807 + 1 = 9223372036854775808", bot.getResponse("9223372036854775807 + 1"));
+        assertEquals("2 ^ 100 = 1267650600228229401496703205376", bot.getResponse("2 ^ 100"));
+        assertTrue(bot.getResponse("1 / 0").contains("деление на ноль"));
+        assertTrue(bot.getResponse("10 ^ 100000").startsWith("Ошибка"));
+        assertTrue(bot.getResponse("(10 ^ 1000) ^ 1000").startsWith("Ошибка"));
+        assertTrue(bot.getResponse("(".repeat(100) + "1" + ")".repeat(100)).startsWith("Ошибка"));
+        assertTrue(bot.getResponse("1+".repeat(200) + "1").startsWith("Ошибка"));
+        assertTrue(bot.getResponse("2 * (3").startsWith("Ошибка"));
+        assertTrue(bot.getResponse("smile (joke)").startsWith("Не понимаю")); // Текст со скобками - не выражение
+        assertTrue(bot.getResponse("see (page 2)").startsWith("Не понимаю"));
+        assertTrue(bot.getResponse("(joke)").startsWith("Не понимаю"));
+        assertTrue(bot.getResponse("10 apples - 2 pears").startsWith("Не понимаю"));
+        assertTrue(bot.getResponse("10 - max 2").startsWith("Не понимаю"));
+        assertEquals("abs(-3) * 2 = 6", bot.getResponse("ABS(-3) * 2"));
+
+        Calculator calculator = new Calculator(2);
+        Calculator.Expression first = calculator.compile("1 + 2");
+        assertSame(first, calculator.compile("1 + 2")); // Повторный запрос не разбирается
+        calculator.compile("2 + 3");
+        calculator.compile("3 + 4");
+        assertNotSame(first, calculator.compile("1 + 2")); // Вытеснено из LRU
+    }
+
+    @Test
+    void testCommandRouter() {
+        CommandRouter router = new CommandRouter((context, message, match) -> "default")
+                .register("привет", CommandRouter.Kind.PURE, CommandRouter.Blocking.NONE, (context, message, match) -> "greeting")
+                .register(java.util.regex.Pattern.compile("(\\d+)\\+(\\d+)"), "0123456789", CommandRouter.Kind.PURE, CommandRouter.Blocking.NETWORK,
+                        (context, message, match) -> match.group(1) + "|" + match.group(2));
+        for (int i = 0; i < 40; i++) {
+            router.register("cmd" + i, CommandRouter.Kind.VOLATILE, CommandRouter.Blocking.NONE, (context, message, match) -> "cmd"); // Проверяем рост таблицы
+        }
+
+        assertEquals("greeting", router.route("ПРИВЕТ"));
+        assertEquals("greeting", router.route("Привет"));
+        assertEquals("cmd", router.route("CMD39"));
+        assertEquals("12|30", router.route("12+30"));
+        assertEquals("default", router.route("12+"));
+        assertEquals("default", router.route("приветик"));
+        assertEquals("default", router.route(""));
+        CommandRouter.Match match = router.resolve("12+30"); // Вид ответа и блокировка - из одного поиска
+        assertEquals(CommandRouter.Blocking.NETWORK, match.blocking());
+        assertEquals(CommandRouter.Kind.PURE, match.kind());
+        assertEquals(CommandRouter.Kind.VOLATILE, router.resolve("приветик").kind());
+        router.resolve("7+8"); // Сопоставитель потока переиспользуется, найденная команда - нет
+        assertEquals("12|30", match.handle(null, "12+30"));
+        assertTrue(bot.getResponse("ЗДРАВСТВУЙТЕ").contains(TEST_USER));
+    }
+
+    @Test
+    void testAsyncResponse() throws Exception {
+        // Быстрая команда отвечает уже завершенным результатом
+        java.util.concurrent.CompletableFuture<String> fast = bot.getResponseAsync("/help").toCompletableFuture();
+        assertTrue(fast.isDone());
+        assertTrue(fast.get().contains("Доступные команды"));
+
+        // Поиск читает историю с диска - всегда в фоне, даже при загруженном кэше курсов
+        assertEquals(CommandRouter.Blocking.DISK, CommandHandlers.router().resolve("найти казань").blocking());
+        assertTrue(bot.getResponseAsync("найти казань").toCompletableFuture()
+                .get(10, java.util.concurrent.TimeUnit.SECONDS).startsWith("🔎 Ничего не найдено"));
+
+        // Курсы без снимка идут в фон; отмена прерывает ожидание
+        ChatBotLogic slowBot = new ChatBotLogic(TEST_USER,
+                new CurrencyRateCache("http://10.255.255.1/", 60_000, 5_000, null));
+        java.util.concurrent.CompletableFuture<String> slow = slowBot.getResponseAsync("курс валют").toCompletableFuture();
+        assertFalse(slow.isDone());
+        assertTrue(slow.cancel(true));
+        assertTrue(slow.isCancelled());
+        slowBot.close();
     }
 
     @Test
@@ -62,11 +183,8 @@ public class TestIsSorted {
     // Тесты для работы с историей сообщений
     @Test
     void testSaveAndLoadHistory() {
-        ListView<Message> listView = new ListView<>();
-
         // Проверяем загрузку пустой истории (должно создать приветственное сообщение)
-        bot.loadHistoryFromFile(listView);
-        ObservableList<Message> messages = listView.getItems();
+        java.util.List<Message> messages = bot.loadHistory().toList();
         assertEquals(1, messages.size());
         assertFalse(messages.get(0).isUser());
         assertTrue(messages.get(0).getText().contains("Привет"));
@@ -79,25 +197,502 @@ public class TestIsSorted {
         bot.saveMessage(botMsg);
         bot.saveHistoryToFile();
 
-        // Очищаем и загружаем снова
-        listView.getItems().clear();
-        bot.loadHistoryFromFile(listView);
+        // Загружаем снова (без JavaFX)
+        messages = bot.loadHistory().toList();
 
-        assertEquals(3, listView.getItems().size()); // Приветствие + 2 сообщения
-        assertEquals("Тест", listView.getItems().get(1).getText());
-        assertEquals("Ответ", listView.getItems().get(2).getText());
+        assertEquals(3, messages.size()); // Приветствие + 2 сообщения
+        assertEquals("Тест", messages.get(1).getText());
+        assertEquals("Ответ", messages.get(2).getText());
     }
 
     @Test
     void testHistoryFileOperations() {
-        // Проверяем создание директории
-        Path dirPath = Paths.get("user_histories");
-        assertTrue(Files.exists(dirPath));
-        assertTrue(Files.isDirectory(dirPath));
+        // Бот без записанной истории на диск не пишет: подкаталог создается при первом сообщении
+        Path dirPath = UserDirectory.shared().directoryOf(TEST_USER);
+        bot.saveHistoryToFile();
+        assertFalse(Files.exists(UserDirectory.shared().file(TEST_USER, "dat")));
 
-        // Проверяем создание файла истории
+        // Проверяем создание файла истории (в подкаталоге пользователя)
+        bot.saveMessage(new Message(TEST_USER, "Тест", "12:00", true));
+        assertTrue(Files.isDirectory(dirPath));
         bot.saveHistoryToFile();
-        assertTrue(Files.exists(Paths.get(TEST_HISTORY_FILE)));
+        assertTrue(Files.exists(UserDirectory.shared().file(TEST_USER, "dat")));
+        assertNotNull(UserDirectory.shared().index().get(TEST_USER));
+    }
+
+    @Test
+    void testJournalAppendAndLegacyReplay() throws Exception {
+        // Старый формат: ArrayList<Message> через ObjectOutputStream
+        java.util.List<Message> legacy = new java.util.ArrayList<>();
+        legacy.add(new Message(TEST_USER, "Старое", "09:00", true));
+        try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(TEST_HISTORY_FILE))) {
+            oos.writeObject(legacy);
+        }
+
+        HistoryStore store = new HistoryStore(historyRoot, TEST_USER);
+        assertEquals(1, store.load().size());
+
+        // Новое сообщение попадает только в журнал, снимок не переписывается
+        long snapshotSize = Files.size(TEST_HISTORY_FILE);
+        store.append(new Message("Бот", "Новое", "09:01", false));
+        assertEquals(snapshotSize, Files.size(TEST_HISTORY_FILE));
+        assertTrue(Files.exists(TEST_JOURNAL_FILE));
+
+        // Оборванная запись в конце журнала отбрасывается
+        Files.write(TEST_JOURNAL_FILE, new byte[]{0, 0, 0, 42, 1}, StandardOpenOption.APPEND);
+        java.util.List<Message> loaded = store.load();
+        assertEquals(2, loaded.size());
+        assertEquals("Старое", loaded.get(0).getText());
+        assertEquals("Новое", loaded.get(1).getText());
+
+        store.checkpoint();
+        assertFalse(Files.exists(TEST_JOURNAL_FILE));
+        assertEquals(2, store.load().size());
+    }
+
+    @Test
+    void testWriteBehindDrainsOnClose() throws Exception {
+        HistoryStore store = new HistoryStore(historyRoot, TEST_USER);
+        HistoryWriter writer = new HistoryWriter(store, HistoryWriter.Durability.ON_SHUTDOWN, 1000, 16);
+        for (int i = 0; i < 100; i++) {
+            writer.submit(new Message(TEST_USER, "Сообщение " + i, "10:00", true)); // Очередь меньше пачки
+        }
+        writer.flush();
+        assertEquals(100, store.load().size());
+
+        writer.submit(new Message("Бот", "Последнее", "10:01", false));
+        writer.close(); // Должен дописать очередь до конца
+        java.util.List<Message> loaded = store.load();
+        assertEquals(101, loaded.size());
+        assertEquals("Последнее", loaded.get(100).getText());
+        assertThrows(IllegalStateException.class, () -> writer.submit(loaded.get(0)));
+    }
+
+    @Test
+    void testWriteBehindRetriesFailedBatch() throws Exception {
+        java.util.concurrent.atomic.AtomicInteger failures = new java.util.concurrent.atomic.AtomicInteger(1);
+        HistoryStore flaky = new HistoryStore(historyRoot, TEST_USER) {
+            @Override
+            public void appendAll(java.util.List<Message> messages) throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("Диск недоступен"); // Первая запись не удается
+                }
+                super.appendAll(messages);
+            }
+        };
+        HistoryWriter writer = new HistoryWriter(flaky, HistoryWriter.Durability.ON_SHUTDOWN, 1000, 16);
+        writer.submit(new Message(TEST_USER, "Первое", 1_000_000L, true));
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            // Сбой пришелся на пачку с этим flush - о нем сообщается, а сообщение ждет повтора
+        }
+        writer.submit(new Message("Бот", "Второе", 1_000_001L, false));
+        writer.flush(); // Повтор записывает и неудачную пачку
+        java.util.List<Message> loaded = new HistoryStore(historyRoot, TEST_USER).load();
+        assertEquals(2, loaded.size());
+        assertEquals("Первое", loaded.get(0).getText());
+        assertEquals("Второе", loaded.get(1).getText());
+        writer.close();
+    }
+
+    @Test
+    void testPagedHistory() throws Exception {
+        HistoryStore store = new HistoryStore(historyRoot, TEST_USER);
+        java.util.List<Message> history = new java.util.ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            history.add(new Message(i % 2 == 0 ? TEST_USER : "Бот", "Сообщение " + i, "12:00", i % 2 == 0));
+        }
+        store.appendAll(history);
+        store.checkpoint(); // Снимок с индексом
+        store.append(new Message("Бот", "Из журнала", "12:01", false));
+
+        HistoryStore.Page last = store.readPage(-1, 100);
+        assertEquals(501, last.total());
+        assertEquals(401, last.firstIndex());
+        assertEquals("Сообщение 401", last.messages().get(0).getText());
+        assertEquals("Из журнала", last.messages().get(99).getText());
+
+        HistoryStore.Page older = store.readPage(last.firstIndex(), 100);
+        assertEquals(301, older.firstIndex());
+        assertEquals("Сообщение 301", older.messages().get(0).getText());
+        assertEquals("Сообщение 400", older.messages().get(99).getText());
+
+        HistoryStore.Page first = store.readPage(50, 100);
+        assertEquals(0, first.firstIndex());
+        assertEquals(50, first.messages().size());
+    }
+
+    @Test
+    void testHistoryRetention() throws Exception {
+        HistoryStore store = new HistoryStore(historyRoot, TEST_USER,
+                new HistoryStore.RetentionPolicy(10, 25, 0));
+        java.util.List<Message> history = new java.util.ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            history.add(new Message(TEST_USER, "Сообщение " + i, "12:00", true));
+        }
+        store.appendAll(history);
+        store.checkpoint(); // 90 сообщений уходят в архивы, из них старые сверх 25 последних удаляются
+        try {
+            assertTrue(Files.exists(historyRoot.resolve("history_" + TEST_USER + ".80.seg.gz")));
+            assertFalse(Files.exists(historyRoot.resolve("history_" + TEST_USER + ".60.seg.gz")));
+
+            HistoryStore.Page last = store.readPage(-1, 15); // Через границу архива и снимка
+            assertEquals(100, last.total());
+            assertEquals(85, last.firstIndex());
+            assertEquals("Сообщение 85", last.messages().get(0).getText());
+            assertEquals("Сообщение 99", last.messages().get(14).getText());
+
+            HistoryStore.Page oldest = store.readPage(last.firstIndex(), 100);
+            assertEquals(70, oldest.firstIndex()); // Раньше - удалено политикой
+            assertEquals(15, oldest.messages().size());
+            assertEquals(30, store.load().size());
+            assertEquals("Сообщение 75", store.readAt(new int[]{5, 75}).get(0).getText());
+
+            store.clear();
+            assertTrue(store.readPage(-1, 10).messages().isEmpty());
+            store.append(new Message("Бот", "После очистки", "12:01", false));
+            HistoryStore.Page afterClear = store.readPage(-1, 10);
+            assertEquals(100, afterClear.firstIndex()); // Номера не переиспользуются
+            assertEquals(1, afterClear.messages().size());
+        } finally {
+            store.clear(); // Удаляет архивы; снимок удаляет tearDown
+        }
+    }
+
+    @Test
+    void testSharedHistoryWriters() throws Exception {
+        // Два хранилища одного пользователя - как два экземпляра приложения
+        HistoryStore first = new HistoryStore(historyRoot, TEST_USER);
+        HistoryStore second = new HistoryStore(historyRoot, TEST_USER);
+        java.util.concurrent.atomic.AtomicBoolean writing = new java.util.concurrent.atomic.AtomicBoolean(true);
+        java.util.concurrent.atomic.AtomicReference<Throwable> readError = new java.util.concurrent.atomic.AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            HistoryStore view = new HistoryStore(historyRoot, TEST_USER);
+            int seen = 0;
+            try {
+                while (writing.get()) {
+                    HistoryStore.Page page = view.readPage(-1, 10);
+                    assertTrue(page.total() >= seen); // Сообщения не пропадают и не повторяются
+                    for (int i = 0; i < page.messages().size(); i++) {
+                        assertEquals("Сообщение " + (page.firstIndex() + i), page.messages().get(i).getText());
+                    }
+                    seen = page.total();
+                }
+            } catch (Throwable e) {
+                readError.set(e);
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 300; i++) {
+                HistoryStore store = i % 3 == 0 ? second : first;
+                store.append(new Message(i % 2 == 0 ? TEST_USER : "Бот", "Сообщение " + i, 1_000_000L + i, i % 2 == 0));
+                if (i % 50 == 49) {
+                    (i % 100 == 49 ? first : second).checkpoint(); // Журнал сворачивает то одно, то другое
+                }
+            }
+        } finally {
+            writing.set(false);
+            reader.join();
+        }
+        assertNull(readError.get());
+
+        java.util.List<Message> loaded = new HistoryStore(historyRoot, TEST_USER).load();
+        assertEquals(300, loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            assertEquals("Сообщение " + i, loaded.get(i).getText());
+            assertEquals(i % 2 == 0 ? TEST_USER : "Бот", loaded.get(i).getAuthor()); // Таблицы авторов согласованы
+        }
+    }
+
+    @Test
+    void testFailedJournalAppend() throws Exception {
+        HistoryStore store = new HistoryStore(historyRoot, TEST_USER);
+        String answer = "Повторяющийся ответ бота"; // Попадает в словарь журнала
+        store.append(new Message(TEST_USER, "До сбоя", 1_000_000L, true));
+
+        // Сбой записи: прерывание потока закрывает канал журнала, когда пачка уже закодирована
+        // (новый автор и новый текст словаря есть только в памяти)
+        Message interrupting = new Message("Новый бот", answer, 1_000_001L, false) {
+            @Override
+            public String getText() {
+                Thread.currentThread().interrupt();
+                return super.getText();
+            }
+        };
+        try {
+            assertThrows(IOException.class, () -> store.appendAll(java.util.List.of(interrupting)));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // Следующие записи не ссылаются на незаписанные автора и текст
+        store.append(new Message("Новый бот", answer, 1_000_002L, false));
+        store.append(new Message("Новый бот", answer, 1_000_003L, false));
+        java.util.List<Message> loaded = new HistoryStore(historyRoot, TEST_USER).load();
+        assertEquals(3, loaded.size());
+        assertEquals("До сбоя", loaded.get(0).getText());
+        assertEquals(1_000_002L, loaded.get(1).getTimestamp());
+        assertEquals(answer, loaded.get(2).getText());
+        assertEquals("Новый бот", loaded.get(2).getAuthor());
+    }
+
+    @Test
+    void testShardedUserDirectory() throws Exception {
+        // Безопасные имена файлов: без кириллицы и разделителей, регистр различается хэшем
+        String stem = UserDirectory.fileStem("Игорь / Igor");
+        assertTrue(stem.matches("igor-[0-9a-f]{16}"), stem);
+        assertNotEquals(UserDirectory.fileStem("igor"), UserDirectory.fileStem("Igor"));
+        assertEquals(UserDirectory.fileStem("e\u0301"), UserDirectory.fileStem("\u00e9")); // NFC: одно и то же имя
+
+        Path root = Files.createTempDirectory("users");
+        try {
+            // Плоские файлы старого вида переносятся перед первым чтением; открытие на диск не пишет
+            String user = "Igor Petrov";
+            HistoryStore legacy = new HistoryStore(root, user);
+            legacy.append(new Message(user, "Старое сообщение", 1_000_000L, true));
+            legacy.checkpoint();
+            legacy.append(new Message("Бот", "Из журнала", 1_000_001L, false));
+
+            UserDirectory users = new UserDirectory(root);
+            HistoryStore store = users.openStore(user);
+            assertFalse(Files.exists(users.directoryOf(user)));
+            users.migrateIfNew(user);
+            assertFalse(Files.exists(root.resolve("history_" + user + ".dat")));
+            assertEquals(users.directoryOf(user), store.getSnapshotFile().getParent());
+            java.util.List<Message> loaded = store.load();
+            assertEquals(2, loaded.size());
+            assertEquals("Из журнала", loaded.get(1).getText());
+
+            // Имя не в форме NFC: файлы переносятся туда же, где их ищет хранилище имени в форме NFC
+            String decomposed = "Jose\u0301";
+            if (isValidPath(root, "history_" + decomposed)) { // Кодировка имен файлов может не вмещать символ
+                new HistoryStore(root, decomposed).append(new Message(decomposed, "Hola", 1_000_003L, true));
+                users.migrateIfNew(decomposed);
+                assertEquals("Hola", users.openStore("Jos\u00e9").load().get(0).getText());
+            }
+
+            // Индекс переживает перезапуск, изменения процессов объединяются
+            users.index().recordSize(user, 2);
+            users.saveIndex();
+            UserDirectory other = new UserDirectory(root);
+            other.index().recordMessages("alice", 3, 5_000_000L);
+            other.saveIndex();
+            users.index().touch(user, System.currentTimeMillis());
+            users.saveIndex(); // Не затирает alice
+            UserDirectory reloaded = new UserDirectory(root);
+            assertEquals(2, reloaded.index().get(user).messages());
+            assertEquals(3, reloaded.index().get("alice").messages());
+            assertEquals(user, reloaded.index().recent(1).get(0).name());
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.walk(root)) {
+                files.sorted(java.util.Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void testNormalizedUserName() throws Exception {
+        // Имя не в форме NFC: настройки хранения и сессия - по имени в форме NFC
+        String composed = "Jos\u00e9", decomposed = "Jose\u0301";
+        String property = "chatbot.history." + composed + ".segmentMessages";
+        System.setProperty(property, "2");
+        ChatBotLogic logic = new ChatBotLogic(decomposed);
+        try {
+            for (int i = 0; i < 5; i++) {
+                logic.saveMessage(new Message(decomposed, "сообщение " + i, 1_000_000L + i, true));
+            }
+            logic.saveHistoryToFile();
+            try (java.util.stream.Stream<Path> files = Files.list(UserDirectory.shared().directoryOf(composed))) {
+                assertTrue(files.anyMatch(file -> file.getFileName().toString().endsWith(".seg.gz")));
+            }
+            logic.clearHistory();
+        } finally {
+            logic.close();
+            System.clearProperty(property);
+        }
+
+        SessionRegistry sessions = new SessionRegistry(ChatBotLogic::new, 60_000, 0);
+        try {
+            SessionRegistry.Session first = sessions.acquire(decomposed);
+            SessionRegistry.Session second = sessions.acquire(composed);
+            assertSame(first, second);
+            sessions.release(first);
+            sessions.release(second);
+        } finally {
+            sessions.close();
+        }
+    }
+
+    @Test
+    void testBatchReplay() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            input.append("{\"user\": \"replay_").append(i % 3).append("\", \"text\": \"привет\"}\n");
+        }
+        input.append("Который час?\n\n{\"user\": \"oops\"\n");
+        input.append("{\"user\": \"replay_0\", \"text\": \"/search привет\"}\n");
+        Path legacy = historyRoot.resolve("history_replay_0.dat"); // Файл плоского вида остается на месте
+        Files.writeString(legacy, "legacy");
+        java.io.StringWriter output = new java.io.StringWriter();
+        BatchReplay.Summary summary = new BatchReplay(4, 8, 2, TEST_USER, ChatBotLogic::readOnly)
+                .run(new java.io.BufferedReader(new java.io.StringReader(input.toString())), output);
+
+        assertEquals(52, summary.messages());
+        assertEquals(1, summary.errors()); // Оборванный JSON
+        assertEquals(52, summary.latency().count());
+        String[] lines = output.toString().split("\n");
+        assertEquals(53, lines.length);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(lines[i].startsWith("{\"line\":" + (i + 1) + ",\"user\":\"replay_" + i % 3 + "\""), lines[i]);
+            assertTrue(lines[i].contains("Привет, replay_" + i % 3 + "!"));
+        }
+        assertTrue(lines[50].contains("\"user\":\"" + TEST_USER + "\""));
+        assertTrue(lines[51].startsWith("{\"line\":52,\"error\":"));
+        for (int i = 0; i < 3; i++) { // Прогон истории не пишет
+            assertNull(UserDirectory.shared().index().get("replay_" + i));
+            assertFalse(Files.exists(UserDirectory.shared().file("replay_" + i, "journal")));
+            assertFalse(Files.exists(UserDirectory.shared().file("replay_" + i, "idx")));
+        }
+        assertTrue(lines[52].contains("Ничего не найдено"), lines[52]);
+        assertEquals("legacy", Files.readString(legacy));
+        Files.delete(legacy);
+        assertFalse(Files.exists(historyRoot.resolve("users.idx")));
+        assertArrayEquals(new String[]{"a", "x\"y\n"},
+                BatchReplay.parseLine("{\"user\":\"a\",\"n\":[1,{\"k\":2}],\"text\":\"x\\\"y\\n\"}", "d"));
+    }
+
+    @Test
+    void testHistorySearch() throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.add("Курс ЕВРО вырос");
+        index.add("exchange rates, please");
+        index.add("Ёлка и евро-купоны");
+        index.add("EXCHANGE-курс");
+        assertArrayEquals(new int[]{2, 0}, index.search("евро", 10)); // Без учета регистра, новые сверху
+        assertArrayEquals(new int[]{3, 1}, index.search("exch*", 10));
+        assertArrayEquals(new int[]{3}, index.search("курс exchange", 10)); // Все слова
+        assertArrayEquals(new int[]{2}, index.search("елка", 10)); // "ё" = "е"
+        assertArrayEquals(new int[0], index.search("доллар", 10));
+
+        Path file = TEST_INDEX_FILE;
+        index.save(file);
+        SearchIndex loaded = SearchIndex.load(file);
+        assertEquals(4, loaded.size());
+        assertArrayEquals(new int[]{3, 0}, loaded.search("кур*", 10));
+
+        // Команда поиска: индекс достраивается по истории, сами запросы не находятся
+        Files.deleteIfExists(file);
+        bot.saveMessage(new Message(TEST_USER, "Купил билеты в Казань", "10:00", true));
+        bot.saveMessage(new Message("Бот", "Не понимаю", "10:00", false));
+        bot.saveMessage(new Message(TEST_USER, "найти казань", "10:01", true));
+        String response = bot.getResponse("найти казань");
+        assertTrue(response.contains("Купил билеты в Казань"));
+        assertFalse(response.contains("10:01"));
+        bot.saveMessage(new Message(TEST_USER, "Еще про Казань", "10:02", true)); // Индекс пополняется сразу
+        assertEquals("Еще про Казань", bot.searchHistory("казань", 1).findFirst().orElseThrow().getText());
+    }
+
+    @Test
+    void testBinaryCodecRoundTrip() throws Exception {
+        java.util.List<Message> history = new java.util.ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            history.add(new Message(i % 2 == 0 ? TEST_USER : "Бот", "Сообщение " + i, "23:5" + (i % 10), i % 2 == 0));
+        }
+        history.add(new Message("Бот", "Нестандартное время", "вчера", false));
+
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        MessageCodec.writeSnapshot(compact, history);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+            oos.writeObject(history);
+        }
+        assertTrue(compact.size() < serialized.size()); // Формат компактнее сериализации
+
+        java.util.List<Message> loaded = new java.util.ArrayList<>();
+        assertEquals(MessageCodec.VERSION, MessageCodec.readSnapshot(compact.toByteArray(), loaded));
+        assertEquals(history.size(), loaded.size());
+        assertEquals("[23:51] Бот: Сообщение 1", loaded.get(1).toString());
+        assertEquals("вчера", loaded.get(200).getTime());
+        assertTrue(loaded.get(0).isUser());
+
+        // Старый формат по-прежнему читается
+        loaded.clear();
+        assertEquals(MessageCodec.LEGACY_VERSION, MessageCodec.readSnapshot(serialized.toByteArray(), loaded));
+        assertEquals(history.size(), loaded.size());
+    }
+
+    @Test
+    void testMessageTimestamps() throws Exception {
+        long now = System.currentTimeMillis();
+        Message message = new Message(TEST_USER, "Сейчас", now, true);
+        String expected = java.time.LocalTime.now().format(java.time.format.DateTimeFormatter.ofPattern("HH:mm"));
+        String before = java.time.LocalTime.now().minusMinutes(1).format(java.time.format.DateTimeFormatter.ofPattern("HH:mm"));
+        assertTrue(message.getTime().equals(expected) || message.getTime().equals(before));
+        assertSame(message.getTime(), new Message("Бот", "Ответ", now, false).getTime()); // Общая строка
+        assertEquals(Message.NO_TIMESTAMP, new Message(TEST_USER, "Старое", "10:00", true).getTimestamp());
+
+        // Время от эпохи сохраняется снимком и журналом
+        java.util.List<Message> history = java.util.List.of(message, new Message("Бот", "Старое", "вчера", false));
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        MessageCodec.writeSnapshot(snapshot, history);
+        java.util.List<Message> loaded = new java.util.ArrayList<>();
+        MessageCodec.readSnapshot(snapshot.toByteArray(), loaded);
+        assertEquals(now, loaded.get(0).getTimestamp());
+        assertEquals("вчера", loaded.get(1).getTime());
+
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        journal.write(MessageCodec.journalHeader(0));
+        MessageCodec.AuthorTable authors = new MessageCodec.AuthorTable();
+        journal.write(MessageCodec.frame(MessageCodec.encodeJournalRecord(message, authors)));
+        loaded.clear();
+        MessageCodec.readJournal(journal.toByteArray(), new MessageCodec.AuthorTable(), loaded);
+        assertEquals(now, loaded.get(0).getTimestamp());
+        assertEquals(TEST_USER, loaded.get(0).getAuthor());
+
+        // Java-сериализация (старые файлы истории) сохраняет прежние поля
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+            oos.writeObject(message);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()))) {
+            Message copy = (Message) ois.readObject();
+            assertEquals(now, copy.getTimestamp());
+            assertEquals(message.toString(), copy.toString());
+        }
+    }
+
+    @Test
+    void testSharedResponseTexts() throws Exception {
+        String help = bot.getResponse("/help");
+        java.util.List<Message> history = new java.util.ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            history.add(new Message(TEST_USER, "/help", 1_000_000L + i, true));
+            history.add(new Message("Бот", new String(help), 1_000_000L + i, false)); // Разные экземпляры
+        }
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        MessageCodec.writeSnapshot(snapshot, history);
+        assertTrue(snapshot.size() < help.getBytes(java.nio.charset.StandardCharsets.UTF_8).length + history.size() * 20); // Справка записана один раз
+
+        java.util.List<Message> loaded = new java.util.ArrayList<>();
+        MessageCodec.readSnapshot(snapshot.toByteArray(), loaded);
+        assertEquals(help, loaded.get(1).getText());
+        assertSame(loaded.get(1).getText(), loaded.get(199).getText()); // Один экземпляр String
+
+        // В журнале повторный ответ записывается ссылкой
+        MessageCodec.AuthorTable authors = new MessageCodec.AuthorTable();
+        byte[] first = MessageCodec.encodeJournalRecord(history.get(1), authors);
+        byte[] second = MessageCodec.encodeJournalRecord(history.get(3), authors);
+        assertTrue(second.length < 16);
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        journal.write(MessageCodec.journalHeader(0));
+        journal.write(MessageCodec.frame(first));
+        journal.write(MessageCodec.frame(second));
+        loaded.clear();
+        MessageCodec.readJournal(journal.toByteArray(), new MessageCodec.AuthorTable(), loaded);
+        assertEquals(help, loaded.get(1).getText());
+        assertSame(loaded.get(0).getText(), loaded.get(1).getText());
     }
 
     // Тесты для Message
@@ -112,6 +707,7 @@ public class TestIsSorted {
 
         Message botMsg = new Message("Bot", "Hi", "12:01", false);
         assertFalse(botMsg.isUser());
+        assertThrows(NullPointerException.class, () -> new Message(null, "Hi", 0L, false)); // Автор обязателен
     }
 
     @Test
@@ -137,6 +733,365 @@ public class TestIsSorted {
         assertEquals("", bot.getCurrencyFlag("USD")); // Для USD флага нет
     }
 
+    @Test
+    void testSearchWithSharedHistory() throws Exception {
+        // Две сессии одного пользователя пишут в одну историю: номера в индексе - из хранилища
+        String user = "Shared Search";
+        ChatBotLogic first = new ChatBotLogic(user);
+        ChatBotLogic second = new ChatBotLogic(user);
+        try {
+            first.saveMessage(new Message(user, "apple", 1L, true));
+            assertEquals(1, first.searchHistory("apple", 10).count()); // Индексы построены до чужих записей
+            assertEquals(1, second.searchHistory("apple", 10).count());
+            second.saveMessage(new Message(user, "banana", 2L, true));
+            first.saveMessage(new Message(user, "cherry", 3L, true));
+            assertEquals(java.util.List.of("cherry"), first.searchHistory("cherry", 10).map(Message::getText).toList());
+            assertEquals(java.util.List.of("banana"), second.searchHistory("banana", 10).map(Message::getText).toList());
+            second.saveMessage(new Message(user, "cherry pie", 4L, true));
+            second.saveHistoryToFile(); // Запись второй сессии - на диске
+            assertEquals(java.util.List.of("cherry pie", "cherry"),
+                    first.searchHistory("cherry", 10).map(Message::getText).toList()); // Сообщение второй сессии найдено
+        } finally {
+            first.close();
+            second.close();
+        }
+        ChatBotLogic reopened = new ChatBotLogic(user); // Индекс из файла
+        try {
+            assertEquals(java.util.List.of("apple"), reopened.searchHistory("apple", 10).map(Message::getText).toList());
+            assertEquals(java.util.List.of("cherry pie", "cherry"),
+                    reopened.searchHistory("cherry", 10).map(Message::getText).toList());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testBotServerSessions() throws Exception {
+        SessionRegistry sessions = new SessionRegistry(ChatBotLogic::new, 60_000, 0);
+        try (BotServer server = new BotServer(0, sessions)) {
+            server.start();
+            String base = "http://localhost:" + server.getPort();
+            java.net.HttpURLConnection chat = post(base + "/chat?user=" + TEST_USER, "5 * 3");
+            assertEquals(200, chat.getResponseCode());
+            try (InputStream in = chat.getInputStream()) {
+                assertEquals("5 * 3 = 15", new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
+            }
+            assertEquals(1, sessions.size());
+
+            java.net.HttpURLConnection escape = post(base + "/chat?user=..%2Fetc", "привет");
+            assertEquals(400, escape.getResponseCode()); // Имя не может выйти за каталог истории
+            escape.disconnect();
+
+            assertEquals(0, sessions.evictIdle(System.currentTimeMillis())); // Сессия еще не простаивает
+            assertEquals(1, sessions.evictIdle(System.currentTimeMillis() + 60_000));
+            assertEquals(0, sessions.size());
+        }
+        java.util.List<Message> history = UserDirectory.shared().openStore(TEST_USER).load();
+        assertEquals("5 * 3 = 15", history.get(history.size() - 1).getText()); // Закрытая сессия дописала журнал
+    }
+
+    // POST-запрос к серверу бота (средствами java.base: модулю не нужен java.net.http)
+    private static java.net.HttpURLConnection post(String url, String body) throws IOException {
+        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) java.net.URI.create(url).toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    @Test
+    void testSessionSavesErrorReply() throws Exception {
+        // Быстрая команда бросает исключение сразу при вызове - сообщение и ответ об ошибке все равно в истории
+        String user = "Failing User";
+        SessionRegistry sessions = new SessionRegistry(name -> new ChatBotLogic(name) {
+            @Override
+            public java.util.concurrent.CompletionStage<String> getResponseAsync(String message) {
+                throw new IllegalStateException("сбой обработчика");
+            }
+        }, 60_000, 0);
+        try {
+            SessionRegistry.Session session = sessions.acquire(user);
+            try {
+                java.util.concurrent.CompletionException error = assertThrows(
+                        java.util.concurrent.CompletionException.class, () -> session.chat("boom"));
+                assertInstanceOf(IllegalStateException.class, error.getCause());
+                java.util.List<Message> history = session.history();
+                assertEquals("boom", history.get(history.size() - 2).getText());
+                assertEquals("Не удалось получить ответ. Попробуйте позже.", history.get(history.size() - 1).getText());
+            } finally {
+                sessions.release(session);
+            }
+        } finally {
+            sessions.close();
+        }
+    }
+
+    @Test
+    void testSessionCloseOutsideMapLock() throws Exception {
+        // Закрытие сессии идет вне блокировки карты; новая сессия пользователя ждет его окончания
+        java.util.concurrent.CountDownLatch closeStarted = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch allowClose = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.atomic.AtomicBoolean first = new java.util.concurrent.atomic.AtomicBoolean(true);
+        SessionRegistry sessions = new SessionRegistry(name -> new ChatBotLogic(name) {
+            @Override
+            public void close() {
+                if (first.getAndSet(false)) {
+                    closeStarted.countDown();
+                    assertDoesNotThrow(() -> allowClose.await());
+                }
+                super.close();
+            }
+        }, 0, 0);
+        try {
+            SessionRegistry.Session old = sessions.acquire("Closing User");
+            sessions.release(old);
+            java.util.concurrent.CompletableFuture<Integer> evicted = java.util.concurrent.CompletableFuture
+                    .supplyAsync(() -> sessions.evictIdle(System.currentTimeMillis() + 1));
+            assertTrue(closeStarted.await(5, java.util.concurrent.TimeUnit.SECONDS));
+            SessionRegistry.Session other = sessions.acquire("Other Closing User"); // Карта не заблокирована
+            sessions.release(other);
+            java.util.concurrent.CompletableFuture<SessionRegistry.Session> reopened = java.util.concurrent.CompletableFuture
+                    .supplyAsync(() -> sessions.acquire("Closing User"));
+            Thread.sleep(100);
+            assertFalse(reopened.isDone()); // Ждет, пока прежняя сессия допишет журнал
+            allowClose.countDown();
+            assertNotSame(old, reopened.get(5, java.util.concurrent.TimeUnit.SECONDS));
+            assertEquals(1, evicted.get(5, java.util.concurrent.TimeUnit.SECONDS));
+            sessions.release(reopened.get());
+        } finally {
+            allowClose.countDown();
+            sessions.close();
+        }
+    }
+
+    @Test
+    void testLatencyHistogram() {
+        Histogram histogram = new Histogram("test");
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L); // 1..1000 мкс
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_000, histogram.percentile(0.50), 500_000 * 0.125); // Погрешность корзины
+        assertEquals(990_000, histogram.percentile(0.99), 990_000 * 0.125);
+        assertEquals(1_000_000, histogram.percentile(1.0));
+        for (long value : new long[]{0, 7, 8, 9, 1023, 1L << 40, Long.MAX_VALUE}) {
+            assertTrue(Histogram.upperBound(Histogram.bucketOf(value)) >= value); // Значение внутри своей корзины
+        }
+        histogram.reset();
+        assertEquals(0, histogram.count());
+    }
+
+    @Test
+    void testRateTableParser() throws Exception {
+        String json = "{\"base\":\"USD\",\"time_last_updated\":1700000000,\"meta\":{\"RUB\":1,\"list\":[1,\"a\",null,true]},"
+                + "\"rates\":{\"USD\":1,\"RUB\":9.05E1,\"BTC\":1.6e-5,\"XXX\":-2.5,\"EUR\":0.92}}";
+        RateTable rates = RateTable.parse(json);
+        assertEquals(4 + 1, rates.size());
+        assertEquals(90.5, rates.rate("RUB"), 1e-9); // Экспонента
+        assertEquals(1.6e-5, rates.rate("BTC"), 1e-12); // Отрицательная экспонента
+        assertEquals(-2.5, rates.rate("XXX"), 1e-9); // Отрицательное число
+        assertEquals(0.0, rates.rate("JPY"));
+        assertEquals("EUR", rates.code(rates.idOf("EUR")));
+        assertEquals(-1, rates.idOf("usd"));
+        assertThrows(IOException.class, () -> RateTable.parse("{\"rates\":{\"USD\":1,}"));
+    }
+
+    @Test
+    void testCurrencyConversion() throws Exception {
+        // Кэш без сети: курсы из сохраненного снимка
+        Path snapshot = Files.createTempFile("rates", ".json");
+        Files.writeString(snapshot, System.currentTimeMillis() + "\n"
+                + "{\"rates\":{\"USD\":1,\"EUR\":0.5,\"JPY\":150,\"RUB\":90}}");
+        ChatBotLogic offlineBot = new ChatBotLogic(TEST_USER,
+                new CurrencyRateCache("http://127.0.0.1:1/", 3_600_000, 500, snapshot));
+        try {
+            assertEquals("💱 100 EUR = 30000,00 JPY".replace(',', decimalSeparator()),
+                    offlineBot.getResponse("100 EUR в JPY"));
+            assertEquals("💱 2.5 USD = 225,00 RUB".replace(',', decimalSeparator()),
+                    offlineBot.getResponse("convert 2.5 usd to rub"));
+            assertEquals("Неизвестная валюта: ABC", offlineBot.getResponse("1 ABC в USD"));
+            assertTrue(offlineBot.getResponse("курс валют").contains("RUB"));
+        } finally {
+            offlineBot.close();
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    void testResponseCache() throws Exception {
+        ResponseCache cache = ResponseCache.shared();
+        bot.getResponse("12 * 34");
+        long hits = cache.hits();
+        assertEquals("12 * 34 = 408", bot.getResponse("12 * 34"));
+        bot.getResponse("/help");
+        bot.getResponse("/help");
+        assertEquals(hits + 2, cache.hits());
+
+        // Приветствие кэшируется отдельно для каждого пользователя, время - не кэшируется
+        ChatBotLogic other = new ChatBotLogic("cache_other");
+        assertTrue(other.getResponse("привет").contains("cache_other"));
+        assertTrue(bot.getResponse("привет").contains(TEST_USER));
+        long lookups = cache.hits() + cache.misses();
+        bot.getResponse("Который час?");
+        assertEquals(lookups, cache.hits() + cache.misses());
+        other.close();
+
+        // Ответ по курсам строится заново для другого снимка
+        Path first = Files.createTempFile("rates", ".json");
+        Path second = Files.createTempFile("rates", ".json");
+        Files.writeString(first, System.currentTimeMillis() + "\n{\"rates\":{\"USD\":1,\"RUB\":90}}");
+        Files.writeString(second, System.currentTimeMillis() + "\n{\"rates\":{\"USD\":1,\"RUB\":100}}");
+        ChatBotLogic firstBot = new ChatBotLogic(TEST_USER, new CurrencyRateCache("http://127.0.0.1:1/", 3_600_000, 500, first));
+        ChatBotLogic secondBot = new ChatBotLogic(TEST_USER, new CurrencyRateCache("http://127.0.0.1:1/", 3_600_000, 500, second));
+        try {
+            String rate90 = "💱 1 USD = 90,00 RUB".replace(',', decimalSeparator());
+            assertEquals(rate90, firstBot.getResponse("1 USD в RUB")); // Курсы загружаются с диска
+            assertEquals(rate90, firstBot.getResponse("1 USD в RUB"));
+            assertEquals("💱 1 USD = 100,00 RUB".replace(',', decimalSeparator()), secondBot.getResponse("1 USD в RUB"));
+        } finally {
+            firstBot.close();
+            secondBot.close();
+            Files.deleteIfExists(first);
+            Files.deleteIfExists(second);
+        }
+
+        // Курсы обновились между поиском в кэше и ответом: ответ строится по снимку из ключа кэша
+        CurrencyRateCache.Snapshot old = CurrencyRateCache.Snapshot.of("{\"rates\":{\"USD\":1,\"RUB\":70}}", 1L);
+        CurrencyRateCache.Snapshot fresh = CurrencyRateCache.Snapshot.of("{\"rates\":{\"USD\":1,\"RUB\":80}}", 2L);
+        java.util.concurrent.atomic.AtomicInteger reads = new java.util.concurrent.atomic.AtomicInteger();
+        ChatBotLogic racingBot = new ChatBotLogic(TEST_USER, new CurrencyRateCache("http://127.0.0.1:1/", 3_600_000, 500, null) {
+            @Override
+            public Snapshot get() {
+                return reads.getAndIncrement() == 0 ? old : fresh; // Обновление сразу после первого чтения
+            }
+
+            @Override
+            public boolean isWarm() {
+                return true;
+            }
+        });
+        try {
+            assertEquals("💱 1 USD = 70,00 RUB".replace(',', decimalSeparator()), racingBot.getResponse("1 USD в RUB"));
+            reads.set(0);
+            assertEquals(BuiltinCommands.Currency.ratesMessage(old.rates(), old.fetchedAt()),
+                    racingBot.getResponse("exchange rates"));
+        } finally {
+            racingBot.close();
+            Files.deleteIfExists(first);
+            Files.deleteIfExists(second);
+        }
+
+        // Вытеснение по размеру: новые ответы вытесняют давно не запрошенные
+        ResponseCache small = new ResponseCache(16 * 200);
+        for (int i = 0; i < 1000; i++) {
+            small.put(null, "q" + i, null, "a".repeat(50));
+        }
+        assertNull(small.get(null, "q0", null));
+        assertEquals("a".repeat(50), small.get(null, "q999", null));
+    }
+
+    private static char decimalSeparator() {
+        return java.text.DecimalFormatSymbols.getInstance().getDecimalSeparator();
+    }
+
+    @Test
+    void testCurrencyRateCache() throws Exception {
+        String json = "{\"rates\":{\"USD\":1.0,\"RUB\":90.5}}";
+        java.util.concurrent.atomic.AtomicInteger requests = new java.util.concurrent.atomic.AtomicInteger();
+        Path snapshot = Files.createTempFile("rates", ".json");
+        try (java.net.ServerSocket server = new java.net.ServerSocket(0)) {
+            // Простейший HTTP-сервер-заглушка: отвечает с задержкой, чтобы запросы пересеклись
+            Thread stub = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try (java.net.Socket socket = server.accept()) {
+                        requests.incrementAndGet();
+                        Thread.sleep(200);
+                        byte[] body = json.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                        socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length
+                                + "\r\nConnection: close\r\n\r\n").getBytes());
+                        socket.getOutputStream().write(body);
+                    } catch (Exception e) {
+                        // Сервер закрыт
+                    }
+                }
+            });
+            stub.setDaemon(true);
+            stub.start();
+
+            String url = "http://127.0.0.1:" + server.getLocalPort() + "/latest";
+            CurrencyRateCache cache = new CurrencyRateCache(url, 60_000, 2000, snapshot);
+            java.util.List<java.util.concurrent.CompletableFuture<CurrencyRateCache.Snapshot>> calls = new java.util.ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(java.util.concurrent.CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return cache.get();
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                }));
+            }
+            for (java.util.concurrent.CompletableFuture<CurrencyRateCache.Snapshot> call : calls) {
+                assertEquals(json, call.join().json());
+            }
+            assertEquals(1, requests.get()); // Один запрос на всех
+            assertEquals(json, cache.get().json());
+            assertEquals(1, requests.get()); // Свежий снимок - из памяти
+        }
+
+        // Без сети ответ берется из снимка на диске
+        CurrencyRateCache offline = new CurrencyRateCache("http://127.0.0.1:1/", 60_000, 500, snapshot);
+        assertEquals(json, offline.get().json());
+
+        // Пустой (оборванный) файл снимка - снимка нет, а не ошибка чтения
+        Files.writeString(snapshot, "");
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true, java.nio.charset.StandardCharsets.UTF_8));
+        try {
+            CurrencyRateCache empty = new CurrencyRateCache("http://127.0.0.1:1/", 60_000, 500, snapshot);
+            assertThrows(IOException.class, empty::get); // Нет ни сети, ни снимка
+        } finally {
+            System.setErr(stderr);
+        }
+        assertFalse(errors.toString(java.nio.charset.StandardCharsets.UTF_8).contains("сохраненные курсы"));
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Test
+    void testCommandHandlers() {
+        // Все встроенные команды найдены через ServiceLoader, в порядке order
+        assertEquals(java.util.List.of("help", "greeting", "time", "calc", "currency", "conversion", "search"),
+                CommandHandlers.names());
+
+        // /help собран по описаниям обработчиков
+        String help = bot.getHelpCommands();
+        assertTrue(help.startsWith("📋 Доступные команды:\n\nОсновные:\n• /help - показать это сообщение\n"));
+        for (String section : new String[]{"Основные:", "Калькулятор:", "Финансы:", "История:"}) {
+            assertTrue(help.contains("\n" + section + "\n"), section);
+        }
+        assertTrue(help.indexOf("Калькулятор:") < help.indexOf("Финансы:"));
+        assertTrue(help.endsWith("\n\nДля выхода закройте окно чата."));
+
+        // Маршрутизатор один на процесс; состояние сессии приходит в обработчик через Context
+        ChatBotLogic other = new ChatBotLogic("Other User");
+        try {
+            assertSame(CommandHandlers.router(), CommandHandlers.router());
+            assertEquals("Привет, Other User! Напишите /help для списка команд.", other.getResponse("привет"));
+            assertEquals("Привет, " + TEST_USER + "! Напишите /help для списка команд.", bot.getResponse("привет"));
+            assertEquals("2 + 3 * 4 = 14", other.getResponse("2 + 3 * 4"));
+            assertTrue(bot.getResponse("абракадабра").startsWith("Не понимаю"));
+        } finally {
+            other.close();
+            for (String extension : TEST_USER_FILES) {
+                assertDoesNotThrow(() -> Files.deleteIfExists(UserDirectory.shared().file("Other User", extension)));
+            }
+        }
+    }
+
     // Тесты для LoginController (имитация)
     @Test
     void testLoginController() {